@@ -0,0 +1,47 @@
+import benchmarks.Workloads;
+import opennlp.tools.util.Span;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * Project side of the benchmark entry points (see {@link Workloads}).
+ */
+public class BenchmarkWorkloads implements Workloads {
+
+    @Override
+    public void generateTokenizedReport(String text, File out) {
+        try {
+            Preprocessor.getInstance().generateTokenizedReport(text, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void convert(File in, String format, File out) throws IOException {
+        WebAnno.convert(in, WebAnno.Format.valueOf(format), out);
+    }
+
+    @Override
+    public Object statistics(File[] in, int threads) {
+        return WebAnno.statistics(in, threads);
+    }
+
+    @Override
+    public Function<String[], Span[]> trainStanford(File[] in, File dir, int maxIterations) throws IOException {
+        File[] trainFiles = new File[in.length];
+        StringBuilder fileList = new StringBuilder();
+        for (int i=0; i<in.length; i++) {
+            trainFiles[i] = new File(dir, WebAnno.stanfordFileName(in[i].getName()));
+            WebAnno.convert(in[i], WebAnno.Format.STANFORD_ANNO, trainFiles[i]);
+            fileList.append(i > 0 ? "," : "").append(trainFiles[i].getPath());
+        }
+        CrfTrainingProfile profile = CrfTrainingProfile.fromSystemProperties(1).withMaxIterations(maxIterations);
+        File model = new File(dir, "benchmark.ser.gz");
+        StanfordNLP.train(StanfordNLP.setProperties(fileList.toString(), 10, profile), trainFiles, 10,
+                new CachingCRFClassifier.FeatureCache(), null, model);
+        return SharedCRFClassifier.load(model)::tag;
+    }
+}
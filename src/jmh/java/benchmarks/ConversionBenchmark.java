@@ -0,0 +1,80 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of the WebAnno exports into each training data format (WebAnno.convert) and the label statistics
+ * (WebAnno.runStatistics), in CoNLL tokens per second (the "tokens" counter).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+
+    /**
+     * Tokens read per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Tokens {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Param({"OPENNLP", "STANFORD_FULL", "STANFORD_ANNO"})
+    public String format;
+
+    private final Workloads workloads = Workloads.get();
+    private File[] in;
+    private File[] out;
+    private long tokens;
+    private File dir;
+
+    @Setup
+    public void setUp() throws IOException {
+        in = Fixtures.conllFiles();
+        tokens = Fixtures.tokens(in);
+        dir = Fixtures.tempDir("conversion");
+        out = new File[in.length];
+        for (int i=0; i<in.length; i++) {
+            out[i] = new File(dir, i + ".out");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public void convert(Tokens counter) throws IOException {
+        for (int i=0; i<in.length; i++) {
+            workloads.convert(in[i], format, out[i]);
+        }
+        counter.tokens += tokens;
+    }
+}
@@ -0,0 +1,105 @@
+package benchmarks;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Synthetic WebAnno exports the benchmarks run on (src/jmh/fixtures/conll): twelve reports of 40 to 60 sentences each,
+ * with goods, assets and services annotated in Part I (between B-START and B-END), generated with a fixed seed.
+ * The benchmarks read them relative to the project directory, like the application reads its models.
+ */
+final class Fixtures {
+    /** Sentences of the report pre-processed by {@link PreprocessingBenchmark} */
+    static final int reportSentences = 500;
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return CoNLL files sorted by name
+     */
+    static File[] conllFiles() {
+        File[] files = new File("src/jmh/fixtures/conll").listFiles((dir, name) -> name.endsWith(".conll"));
+        if (files == null || files.length == 0) {
+            throw new IllegalStateException("No fixtures in src/jmh/fixtures/conll, run the benchmarks from the project directory");
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * @param files CoNLL files
+     * @return Tokens of every sentence of the files
+     * @throws IOException
+     */
+    static List<String[]> sentences(File[] files) throws IOException {
+        List<String[]> sentences = new ArrayList<>();
+        for (File file : files) {
+            List<String> sentence = new ArrayList<>();
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                if (line.trim().isEmpty()) {
+                    if (!sentence.isEmpty()) {
+                        sentences.add(sentence.toArray(new String[sentence.size()]));
+                        sentence.clear();
+                    }
+                } else {
+                    sentence.add(line.trim().split(" ")[0]);
+                }
+            }
+            if (!sentence.isEmpty()) {
+                sentences.add(sentence.toArray(new String[sentence.size()]));
+            }
+        }
+        return sentences;
+    }
+
+    /**
+     * @param files CoNLL files
+     * @return Number of tokens in the files
+     * @throws IOException
+     */
+    static long tokens(File[] files) throws IOException {
+        long tokens = 0;
+        for (String[] sentence : sentences(files)) {
+            tokens += sentence.length;
+        }
+        return tokens;
+    }
+
+    /**
+     * @return Plain text of a report made of the fixture sentences (repeated up to {@link #reportSentences})
+     * @throws IOException
+     */
+    static String reportText() throws IOException {
+        List<String[]> sentences = sentences(conllFiles());
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<reportSentences; i++) {
+            sb.append(String.join(" ", sentences.get(i % sentences.size()))).append(i % 10 == 9 ? "\n\n" : " ");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param prefix Prefix of the directory name
+     * @return New temporary directory
+     * @throws IOException
+     */
+    static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    /**
+     * @param dir Temporary directory to be deleted with its content
+     * @throws IOException
+     */
+    static void delete(File dir) throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+}
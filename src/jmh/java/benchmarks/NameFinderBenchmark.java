@@ -0,0 +1,132 @@
+package benchmarks;
+
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.namefind.NameSampleDataStream;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.ObjectStreamUtils;
+import opennlp.tools.util.PlainTextByLineStream;
+import opennlp.tools.util.Span;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OpenNLP name finder: training on the converted exports (NameFinderME.train, as OpenNLP.trainModel trains it),
+ * reported in seconds per model and seconds per MB of training data (the "megabytes" counter), and tagging with the
+ * trained model, in sentences per second.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class NameFinderBenchmark {
+
+    /**
+     * Training data (in MB of .train files) a model was trained on.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Corpus {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    /**
+     * Name finder of a tagging thread and the next sentence it tags.
+     */
+    @State(Scope.Thread)
+    public static class Tagger {
+        private NameFinderME nameFinder;
+        private int next = 0;
+
+        @Setup
+        public void setUp(NameFinderBenchmark benchmark) {
+            nameFinder = new NameFinderME(benchmark.model);
+        }
+    }
+
+    private final Workloads workloads = Workloads.get();
+    private List<NameSample> samples;
+    private double megabytes;
+    private TokenNameFinderModel model;
+    private List<String[]> sentences;
+
+    @Setup
+    public void setUp() throws IOException {
+        File dir = Fixtures.tempDir("onlp");
+        long bytes = 0;
+        samples = new ArrayList<>();
+        try {
+            for (File in : Fixtures.conllFiles()) {
+                File out = new File(dir, in.getName() + ".train");
+                workloads.convert(in, "OPENNLP", out);
+                bytes += out.length();
+                NameSampleDataStream stream = new NameSampleDataStream(new PlainTextByLineStream(
+                        new InputStreamReader(new FileInputStream(out), StandardCharsets.UTF_8)));
+                NameSample sample;
+                while ((sample = stream.read()) != null) {
+                    samples.add(sample);
+                }
+                stream.close();
+            }
+        } finally {
+            Fixtures.delete(dir);
+        }
+        megabytes = bytes / (1024.0 * 1024.0);
+        model = train();
+        sentences = new ArrayList<>();
+        for (NameSample sample : samples) {
+            sentences.add(sample.getSentence());
+        }
+    }
+
+    private TokenNameFinderModel train() throws IOException {
+        return NameFinderME.train("en", "products", ObjectStreamUtils.createObjectStream(samples),
+                Collections.<String, Object>emptyMap());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 2, time = 5)
+    @Measurement(iterations = 3, time = 5)
+    public TokenNameFinderModel train(Corpus corpus) throws IOException {
+        corpus.megabytes += megabytes;
+        return train();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public Span[] tag(Tagger tagger) {
+        try {
+            return tagger.nameFinder.find(sentences.get(tagger.next++ % sentences.size()));
+        } finally {
+            tagger.nameFinder.clearAdaptiveData();
+        }
+    }
+}
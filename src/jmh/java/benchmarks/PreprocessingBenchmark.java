@@ -0,0 +1,54 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sentence detection and tokenization of a report (Preprocessor.generateTokenizedReport), in sentences per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PreprocessingBenchmark {
+    private final Workloads workloads = Workloads.get();
+    private String text;
+    private File dir;
+    private File out;
+
+    @Setup
+    public void setUp() throws IOException {
+        text = Fixtures.reportText();
+        dir = Fixtures.tempDir("preprocessing");
+        out = new File(dir, "report.txt");
+        // loads the sentence and tokenizer models
+        workloads.generateTokenizedReport(text, out);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.reportSentences)
+    public void generateTokenizedReport() {
+        workloads.generateTokenizedReport(text, out);
+    }
+}
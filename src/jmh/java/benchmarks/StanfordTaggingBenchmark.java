@@ -0,0 +1,64 @@
+package benchmarks;
+
+import opennlp.tools.util.Span;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Tagging with a Stanford CRF classifier (feature set 10, trained on the annotated sentences of the exports when the
+ * benchmark starts), in sentences per second. The classifier is shared by all threads, as in the NER service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StanfordTaggingBenchmark {
+
+    /**
+     * Next sentence a tagging thread tags.
+     */
+    @State(Scope.Thread)
+    public static class Position {
+        private int next = 0;
+    }
+
+    /** QN iterations of the classifier, the time per sentence hardly depends on how well it converged */
+    @Param({"50"})
+    public int maxIterations;
+
+    private Function<String[], Span[]> tagger;
+    private List<String[]> sentences;
+
+    @Setup
+    public void setUp() throws IOException {
+        File dir = Fixtures.tempDir("snlp");
+        try {
+            tagger = Workloads.get().trainStanford(Fixtures.conllFiles(), dir, maxIterations);
+        } finally {
+            Fixtures.delete(dir);
+        }
+        sentences = Fixtures.sentences(Fixtures.conllFiles());
+    }
+
+    @Benchmark
+    public Span[] tag(Position position) {
+        return tagger.apply(sentences.get(position.next++ % sentences.size()));
+    }
+}
@@ -0,0 +1,44 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Label statistics over all exports (WebAnno.runStatistics on one thread), in CoNLL tokens per second
+ * (the "tokens" counter).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatisticsBenchmark {
+    private final Workloads workloads = Workloads.get();
+    private File[] in;
+    private long tokens;
+
+    @Setup
+    public void setUp() throws IOException {
+        in = Fixtures.conllFiles();
+        tokens = Fixtures.tokens(in);
+    }
+
+    @Benchmark
+    public Object runStatistics(ConversionBenchmark.Tokens counter) {
+        counter.tokens += tokens;
+        return workloads.statistics(in, 1);
+    }
+}
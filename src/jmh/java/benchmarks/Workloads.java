@@ -0,0 +1,61 @@
+package benchmarks;
+
+import opennlp.tools.util.Span;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * Entry points of the project the benchmarks measure. JMH does not accept benchmarks in the default package, and the
+ * project classes, which are all in the default package, cannot be imported from a named one. So the benchmarks call
+ * them through this interface, implemented by BenchmarkWorkloads in the default package.
+ */
+public interface Workloads {
+
+    /**
+     * @return Implementation in the default package
+     */
+    static Workloads get() {
+        try {
+            return (Workloads) Class.forName("BenchmarkWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchmarkWorkloads not found", e);
+        }
+    }
+
+    /**
+     * Preprocessor.generateTokenizedReport(String, File) with the shared pre-processor.
+     * @param text Report as plain text
+     * @param out Tokenized report
+     */
+    void generateTokenizedReport(String text, File out);
+
+    /**
+     * WebAnno.convert(File, Format, File).
+     * @param in CoNLL file
+     * @param format Name of the WebAnno.Format
+     * @param out Training file
+     * @throws IOException
+     */
+    void convert(File in, String format, File out) throws IOException;
+
+    /**
+     * WebAnno.runStatistics(File[], int) without printing.
+     * @param in CoNLL files
+     * @param threads Number of files read at the same time
+     * @return Statistics
+     */
+    Object statistics(File[] in, int threads);
+
+    /**
+     * Trains a Stanford classifier (feature set 10) on the annotated sentences of the CoNLL files and loads it as
+     * SharedCRFClassifier.
+     * @param in CoNLL files
+     * @param dir Directory for the training files and the model
+     * @param maxIterations QN iterations
+     * @return Tagger of one sentence (thread-safe)
+     * @throws IOException
+     */
+    Function<String[], Span[]> trainStanford(File[] in, File dir, int maxIterations) throws IOException;
+}
@@ -0,0 +1,197 @@
+import opennlp.tools.util.Span;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Tags sentences of any number of callers and documents in micro-batches. Sentences are queued; each worker thread
+ * takes the next sentence and whatever else is queued up to the batch size, waiting at most the batch delay for more,
+ * and tags the whole batch with its own tagger. So a worker is woken, and the queue locked, once per batch instead of
+ * once per sentence, and the taggers (e.g. NameFinderME) are confined to their worker thread.
+ * The results do not depend on how the sentences are batched: every sentence is tagged on its own.
+ */
+class BatchTagger implements AutoCloseable {
+
+    /**
+     * Tagger of one worker thread.
+     */
+    interface SentenceTagger {
+        /**
+         * @param tokens Tokens of a sentence
+         * @return Entities of the sentence (token spans)
+         */
+        Span[] tag(String[] tokens);
+    }
+
+    private static class Request {
+        private final String[] tokens;
+        private final CompletableFuture<Span[]> result = new CompletableFuture<>();
+
+        private Request(String[] tokens) {
+            this.tokens = tokens;
+        }
+    }
+
+    /** Queued to stop a worker, one per worker */
+    private static final Request stop = new Request(null);
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final int batchSize;
+    private final long batchDelay;
+    /** Held while queueing, so that no sentence is queued behind the stop markers */
+    private final Object queueLock = new Object();
+    private boolean closed = false;
+    private long batches = 0;
+    private long sentences = 0;
+
+    /**
+     * Starts the worker threads.
+     * @param taggers Creates the tagger of each worker thread
+     * @param threads Number of worker threads
+     * @param batchSize Maximum number of sentences tagged in one batch
+     * @param batchDelay Time (in ms) a worker waits for a batch to fill up, 0 = takes only what is queued
+     */
+    public BatchTagger(Supplier<SentenceTagger> taggers, int threads, int batchSize, long batchDelay) {
+        this.batchSize = Math.max(1, batchSize);
+        this.batchDelay = TimeUnit.MILLISECONDS.toNanos(batchDelay);
+        for (int i=0; i<Math.max(1, threads); i++) {
+            Thread worker = new Thread(() -> work(taggers.get()), "batch-tagger-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a sentence for tagging.
+     * @param tokens Tokens of the sentence
+     * @return Entities of the sentence once it is tagged
+     */
+    public Future<Span[]> submit(String[] tokens) {
+        Request request = new Request(tokens);
+        synchronized (queueLock) {
+            if (closed) {
+                throw new IllegalStateException("Batch tagger is closed");
+            }
+            queue.add(request);
+        }
+        return request.result;
+    }
+
+    /**
+     * Tags many sentences and waits for all of them.
+     * @param sentences Tokens of each sentence
+     * @return Entities of each sentence, in the order of the sentences
+     * @throws InterruptedException
+     * @throws ExecutionException If tagging a sentence failed
+     */
+    public List<Span[]> tagAll(List<String[]> sentences) throws InterruptedException, ExecutionException {
+        List<Future<Span[]>> results = new ArrayList<>(sentences.size());
+        for (String[] tokens : sentences) {
+            results.add(submit(tokens));
+        }
+        List<Span[]> spans = new ArrayList<>(sentences.size());
+        for (Future<Span[]> result : results) {
+            spans.add(result.get());
+        }
+        return spans;
+    }
+
+    private void work(SentenceTagger tagger) {
+        List<Request> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - batch.size());
+                long deadline = System.nanoTime() + batchDelay;
+                while (batch.size() < batchSize && batch.get(batch.size() - 1) != stop) {
+                    long wait = deadline - System.nanoTime();
+                    Request request = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    if (request == null) {
+                        break;
+                    }
+                    batch.add(request);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+
+                int stops = 0;
+                int tagged = 0;
+                for (Request request : batch) {
+                    if (request == stop) {
+                        stops++;
+                        continue;
+                    }
+                    try {
+                        request.result.complete(tagger.tag(request.tokens));
+                    } catch (Throwable e) {
+                        // also errors (e.g. StackOverflowError in CRF inference), the worker goes on with the batch
+                        request.result.completeExceptionally(e);
+                    }
+                    tagged++;
+                }
+                count(tagged);
+                batch.clear();
+                if (stops > 0) {
+                    // the other stops belong to the other workers
+                    for (int i=1; i<stops; i++) {
+                        queue.add(stop);
+                    }
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // a worker leaving early must not leave its callers waiting for the rest of its batch
+            for (Request request : batch) {
+                if (request != stop) {
+                    request.result.completeExceptionally(new IllegalStateException("Batch tagger worker stopped"));
+                }
+            }
+        }
+    }
+
+    private synchronized void count(int tagged) {
+        if (tagged > 0) {
+            batches++;
+            sentences += tagged;
+        }
+    }
+
+    /**
+     * @return Average number of sentences per batch so far
+     */
+    public synchronized double getAverageBatchSize() {
+        return batches == 0 ? 0.0 : (double) sentences / batches;
+    }
+
+    /**
+     * Tags the sentences already queued and stops the workers.
+     */
+    @Override
+    public void close() {
+        synchronized (queueLock) {
+            if (!closed) {
+                closed = true;
+                for (int i=0; i<workers.size(); i++) {
+                    queue.add(stop);
+                }
+            }
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,479 @@
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.util.Span;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Annotated training data of all WebAnno export files in one binary file, from which the OpenNLP name samples and the
+ * Stanford documents are taken directly instead of parsing the .train and .tsv files written from the same exports.
+ * The file holds the CoNLL content as read: the words as ids into a vocabulary, the labels as one byte per token
+ * (an index into the label table), and offset tables of the sentences and of the documents (one per CoNLL file).
+ * Opening the corpus reads the file into memory and decodes only the vocabulary; the token ids and labels are read from
+ * that buffer. The file is not held open, so a new corpus can replace it (or an incremental conversion delete it) while
+ * the old one is still in use.
+ * <pre>
+ * int magic, int version, int documents, int sentences, int tokens
+ * string table: vocabulary, labels, document names (int count, int[count + 1] UTF-8 offsets, bytes, padding to 4)
+ * int[documents + 1]  first sentence of each document
+ * int[sentences + 1]  first token of each sentence (a sentence ends at a blank line)
+ * int[tokens]         word ids
+ * byte[tokens]        label ids
+ * </pre>
+ */
+class BinaryCorpus {
+    private static final int magic = 0x4E455243;
+    private static final int version = 1;
+    private static BinaryCorpus configured;
+    /** Size and modification time of the configured corpus when it was opened (size -1 = not opened yet, 0 = missing) */
+    private static long configuredSize = -1;
+    private static long configuredLastModified = -1;
+
+    /**
+     * Content of one CoNLL file, collected while the file is read.
+     */
+    static class Document {
+        private final String name;
+        private final List<String> words = new ArrayList<>();
+        private final List<ConllReader.Label> labels = new ArrayList<>();
+        private final List<Integer> sentenceEnds = new ArrayList<>();
+
+        /**
+         * @param name Name of the CoNLL file
+         */
+        Document(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param word Token
+         * @param label Annotation
+         */
+        void token(String word, ConllReader.Label label) {
+            words.add(word);
+            labels.add(label);
+        }
+
+        /**
+         * Ends the sentence at an empty line.
+         */
+        void blank() {
+            sentenceEnds.add(words.size());
+        }
+    }
+
+    private final ByteBuffer buffer;
+    /** Modification time of the corpus file, training files changed after it are not taken from the corpus */
+    private final long lastModified;
+    private final String[] vocabulary;
+    private final ConllReader.Label[] labels;
+    private final String[] names;
+    private final IntBuffer documentSentences;
+    private final IntBuffer sentenceTokens;
+    private final IntBuffer words;
+    private final int labelOffset;
+    private final Map<String, Integer> openNlpNames = new HashMap<>();
+    private final Map<String, Integer> stanfordNames = new HashMap<>();
+
+    private BinaryCorpus(ByteBuffer buffer, long lastModified) throws IOException {
+        this.buffer = buffer;
+        this.lastModified = lastModified;
+        if (buffer.getInt() != magic || buffer.getInt() != version) {
+            throw new IOException("Not a binary corpus (version " + version + ")");
+        }
+        int documents = buffer.getInt();
+        int sentences = buffer.getInt();
+        int tokens = buffer.getInt();
+        vocabulary = readStrings(buffer);
+        String[] labelNames = readStrings(buffer);
+        labels = new ConllReader.Label[labelNames.length];
+        for (int i=0; i<labelNames.length; i++) {
+            labels[i] = ConllReader.Label.of(labelNames[i]);
+        }
+        names = readStrings(buffer);
+        documentSentences = ints(buffer, documents + 1);
+        sentenceTokens = ints(buffer, sentences + 1);
+        words = ints(buffer, tokens);
+        labelOffset = buffer.position();
+
+        for (int i=0; i<names.length; i++) {
+            openNlpNames.put(WebAnno.openNlpFileName(names[i]), i);
+            stanfordNames.put(WebAnno.stanfordFileName(names[i]), i);
+        }
+    }
+
+    /**
+     * Opens a binary corpus.
+     * @param file Corpus file
+     * @return Corpus
+     * @throws IOException
+     */
+    public static BinaryCorpus open(File file) throws IOException {
+        // taken before reading, so a corpus replaced meanwhile is not considered newer than it is
+        long lastModified = file.lastModified();
+        return new BinaryCorpus(Utf8FileReader.read(file), lastModified);
+    }
+
+    /**
+     * Returns the corpus set with -Dnlp.corpus=file, which training reads instead of the text files of the same name
+     * (unless a text file was changed after the corpus was written).
+     * It must have been written together with the text files (see {@link WebAnno#convertAll(File[], int)}).
+     * The corpus is opened again when it was written anew since (e.g. by an earlier step of a {@link RunPlan}).
+     * @return Corpus, null if none is set or the file does not exist (e.g. it was deleted by an incremental conversion)
+     * @throws IOException
+     */
+    public static synchronized BinaryCorpus configured() throws IOException {
+        String property = System.getProperty("nlp.corpus");
+        if (property == null) {
+            return null;
+        }
+        File file = new File(property);
+        if (!file.isFile()) {
+            if (configured != null || configuredSize != 0) {
+                System.out.println("Binary corpus " + file.getPath() + " not found, reading the text files (run option 0 to write it)");
+                configured = null;
+                configuredSize = 0;
+            }
+            return null;
+        }
+        if (configured == null || file.length() != configuredSize || file.lastModified() != configuredLastModified) {
+            configuredSize = file.length();
+            configuredLastModified = file.lastModified();
+            configured = open(file);
+        }
+        return configured;
+    }
+
+    /**
+     * Writes the documents with a common vocabulary and label table.
+     * @param documents Documents in the order they are stored
+     * @param out Corpus file
+     * @throws IOException
+     */
+    public static void write(List<Document> documents, File out) throws IOException {
+        Map<String, Integer> vocabulary = new LinkedHashMap<>();
+        Map<String, Integer> labels = new LinkedHashMap<>();
+        List<String> names = new ArrayList<>();
+        int sentences = 0;
+        int tokens = 0;
+        for (Document d : documents) {
+            for (String word : d.words) {
+                vocabulary.putIfAbsent(word, vocabulary.size());
+            }
+            for (ConllReader.Label label : d.labels) {
+                labels.putIfAbsent(label.name, labels.size());
+            }
+            names.add(d.name);
+            sentences += sentenceCount(d);
+            tokens += d.words.size();
+        }
+        if (labels.size() > 256) {
+            throw new IOException("More than 256 different labels");
+        }
+
+        // written beside and moved over the old corpus, so that it is never read partly written
+        File tmp = new File(out.getPath() + ".tmp");
+        try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            data.writeInt(magic);
+            data.writeInt(version);
+            data.writeInt(documents.size());
+            data.writeInt(sentences);
+            data.writeInt(tokens);
+            writeStrings(data, new ArrayList<>(vocabulary.keySet()));
+            writeStrings(data, new ArrayList<>(labels.keySet()));
+            writeStrings(data, names);
+
+            int sentence = 0;
+            for (Document d : documents) {
+                data.writeInt(sentence);
+                sentence += sentenceCount(d);
+            }
+            data.writeInt(sentence);
+            int token = 0;
+            for (Document d : documents) {
+                for (int end : d.sentenceEnds) {
+                    data.writeInt(token + end);
+                }
+                token += d.words.size();
+            }
+            data.writeInt(token);
+            for (Document d : documents) {
+                for (String word : d.words) {
+                    data.writeInt(vocabulary.get(word));
+                }
+            }
+            for (Document d : documents) {
+                for (ConllReader.Label label : d.labels) {
+                    data.writeByte(labels.get(label.name));
+                }
+            }
+        }
+        Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Sentences of a document: every blank line ends one, tokens behind the last blank line form the last.
+     * Stored as their ends, the first sentence starts at the start of the document.
+     */
+    private static int sentenceCount(Document d) {
+        int last = d.sentenceEnds.isEmpty() ? 0 : d.sentenceEnds.get(d.sentenceEnds.size() - 1);
+        if (last < d.words.size()) {
+            d.sentenceEnds.add(d.words.size());
+        }
+        return d.sentenceEnds.size();
+    }
+
+    private static void writeStrings(DataOutputStream data, List<String> strings) throws IOException {
+        byte[][] bytes = new byte[strings.size()][];
+        int offset = 0;
+        data.writeInt(strings.size());
+        data.writeInt(0);
+        for (int i=0; i<bytes.length; i++) {
+            bytes[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            offset += bytes[i].length;
+            data.writeInt(offset);
+        }
+        for (byte[] b : bytes) {
+            data.write(b);
+        }
+        for (int i=offset; i % 4 != 0; i++) {
+            data.writeByte(0);
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        int[] offsets = new int[count + 1];
+        for (int i=0; i<=count; i++) {
+            offsets[i] = buffer.getInt();
+        }
+        byte[] bytes = new byte[offsets[count]];
+        buffer.get(bytes);
+        buffer.position(buffer.position() + (4 - bytes.length % 4) % 4);
+        String[] strings = new String[count];
+        for (int i=0; i<count; i++) {
+            strings[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    /**
+     * View of the next ints of the buffer, without copying them.
+     */
+    private static IntBuffer ints(ByteBuffer buffer, int count) {
+        ByteBuffer view = buffer.slice();
+        view.limit(4 * count);
+        buffer.position(buffer.position() + 4 * count);
+        return view.asIntBuffer();
+    }
+
+    /**
+     * @return Names of the CoNLL files of the documents, in the order they are stored
+     */
+    public List<String> documents() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    private String word(int token) {
+        return vocabulary[words.get(token)];
+    }
+
+    private ConllReader.Label label(int token) {
+        return labels[buffer.get(labelOffset + token) & 0xFF];
+    }
+
+    private static boolean isMarker(ConllReader.Label label, String type) {
+        return label != ConllReader.Label.O && type.equals(label.type);
+    }
+
+    /**
+     * Label of a token in the Stanford training data: "O" or the entity type (B-START and B-END are "O").
+     */
+    private static String stanfordLabel(ConllReader.Label label) {
+        if (label == ConllReader.Label.O || isMarker(label, "START") || isMarker(label, "END")) {
+            return "O";
+        }
+        return label.type;
+    }
+
+    /**
+     * Name samples of a document, the same as the OpenNLP training file (.train) of its CoNLL file holds: the
+     * sentences of Part I from the token labelled B-START up to the token labelled B-END, followed by ".".
+     * @param document Index of the document
+     * @return Name samples in file order
+     */
+    public List<NameSample> nameSamples(int document) {
+        List<NameSample> samples = new ArrayList<>();
+        boolean partOne = false;
+        boolean clearAdaptiveData = false;
+
+        for (int s=documentSentences.get(document); s<documentSentences.get(document + 1); s++) {
+            int from = sentenceTokens.get(s);
+            int to = sentenceTokens.get(s + 1);
+            boolean last = false;
+            for (int t=from; t<to; t++) {
+                if (isMarker(label(t), "START")) {
+                    // the sentence starts anew at B-START
+                    partOne = true;
+                    from = t;
+                } else if (partOne && isMarker(label(t), "END")) {
+                    last = true;
+                    to = t + 1;
+                }
+            }
+            if (!partOne) {
+                continue;
+            }
+
+            List<String> tokens = new ArrayList<>(to - from + 1);
+            List<Span> names = new ArrayList<>();
+            int start = -1;
+            for (int t=from; t<=to; t++) {
+                String label = t < to ? stanfordLabel(label(t)) : "O";
+                if (start >= 0 && (label.equals("O") || label(t).prefix.equals("B"))) {
+                    names.add(new Span(start, tokens.size(), stanfordLabel(label(from + start))));
+                    start = -1;
+                }
+                if (t < to) {
+                    if (start < 0 && !label.equals("O")) {
+                        start = tokens.size();
+                    }
+                    tokens.add(word(t));
+                }
+            }
+            if (last) {
+                tokens.add(".");
+            }
+
+            if (tokens.isEmpty()) {
+                // an empty line in the training file marks a new document for the adaptive features
+                clearAdaptiveData = true;
+            } else {
+                samples.add(new NameSample(tokens.toArray(new String[tokens.size()]), names.toArray(new Span[names.size()]),
+                        clearAdaptiveData));
+                clearAdaptiveData = false;
+            }
+            if (last) {
+                break;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Tokens of a document as read from its Stanford training file (.tsv), with the label as answer and gold answer.
+     * @param document Index of the document
+     * @param annoOnly True = only the sentences with an annotation (training/snlp/anno),
+     *                 false = all tokens of Part I (training/snlp/full)
+     * @return Tokens in file order
+     */
+    public List<CoreLabel> stanfordDocument(int document, boolean annoOnly) {
+        List<CoreLabel> tokens = new ArrayList<>();
+        int first = sentenceTokens.get(documentSentences.get(document));
+        int end = sentenceTokens.get(documentSentences.get(document + 1));
+
+        if (!annoOnly) {
+            boolean partOne = false;
+            for (int t=first; t<end; t++) {
+                partOne |= isMarker(label(t), "START");
+                if (partOne) {
+                    tokens.add(coreLabel(word(t), stanfordLabel(label(t))));
+                    if (isMarker(label(t), "END")) {
+                        tokens.add(coreLabel(".", "O"));
+                        break;
+                    }
+                }
+            }
+            return tokens;
+        }
+
+        for (int s=documentSentences.get(document); s<documentSentences.get(document + 1); s++) {
+            int from = sentenceTokens.get(s);
+            int to = sentenceTokens.get(s + 1);
+            boolean annotated = false;
+            for (int t=from; t<to && !annotated; t++) {
+                annotated = !stanfordLabel(label(t)).equals("O");
+            }
+            if (annotated) {
+                for (int t=from; t<to; t++) {
+                    tokens.add(coreLabel(word(t), stanfordLabel(label(t))));
+                    if (isMarker(label(t), "END")) {
+                        tokens.add(coreLabel(".", "O"));
+                    }
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static CoreLabel coreLabel(String word, String answer) {
+        CoreLabel label = new CoreLabel();
+        label.set(CoreAnnotations.TextAnnotation.class, word);
+        label.set(CoreAnnotations.AnswerAnnotation.class, answer);
+        label.set(CoreAnnotations.GoldAnswerAnnotation.class, answer);
+        return label;
+    }
+
+    /**
+     * Finds the document an OpenNLP training file was written from.
+     * @param trainFile OpenNLP training file (.train), e.g. a copy in a fold
+     * @return Index of the document, -1 if the corpus does not hold it or the file was changed after the corpus was
+     * written (e.g. converted again by option 2), so that it is read as text
+     */
+    public int findOpenNlp(File trainFile) {
+        return find(openNlpNames, trainFile);
+    }
+
+    /**
+     * Finds the document a Stanford training file was written from.
+     * @param tsvFile Stanford training file (.tsv), e.g. a copy in a fold
+     * @return Index of the document, -1 if the corpus does not hold it or the file was changed after the corpus was
+     * written (e.g. converted again by option 6 or 10), so that it is read as text
+     */
+    public int findStanford(File tsvFile) {
+        return find(stanfordNames, tsvFile);
+    }
+
+    private int find(Map<String, Integer> names, File file) {
+        Integer document = names.get(file.getName());
+        if (document == null || file.lastModified() > lastModified) {
+            return -1;
+        }
+        return document;
+    }
+
+    /**
+     * Tells whether a Stanford training file holds only the annotated sentences, by the directory it lies in
+     * (training/snlp/anno and the folds and domains below it).
+     * @param tsvFile Stanford training file
+     * @return True for annotated sentences only
+     */
+    public static boolean isAnnoOnly(File tsvFile) {
+        for (File dir = tsvFile.getAbsoluteFile().getParentFile(); dir != null; dir = dir.getParentFile()) {
+            if (dir.getName().equals("anno")) {
+                return true;
+            }
+            if (dir.getName().equals("full")) {
+                return false;
+            }
+        }
+        return false;
+    }
+}
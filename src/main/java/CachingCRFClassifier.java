@@ -0,0 +1,329 @@
+import edu.stanford.nlp.ie.crf.CRFClassifier;
+import edu.stanford.nlp.ie.crf.CRFDatum;
+import edu.stanford.nlp.ie.crf.CRFLabel;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.objectbank.ObjectBank;
+import edu.stanford.nlp.optimization.DiffFunction;
+import edu.stanford.nlp.optimization.Evaluator;
+import edu.stanford.nlp.optimization.Minimizer;
+import edu.stanford.nlp.optimization.QNMinimizer;
+import edu.stanford.nlp.objectbank.ReaderIteratorFactory;
+import edu.stanford.nlp.objectbank.ResettableReaderIteratorFactory;
+import edu.stanford.nlp.sequences.Clique;
+import edu.stanford.nlp.sequences.FeatureFactory;
+import edu.stanford.nlp.sequences.ObjectBankWrapper;
+import edu.stanford.nlp.util.CallbackFunction;
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.PaddedList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * CRF classifier which takes the features of its training documents from a {@link FeatureCache} instead of extracting
+ * them again. The features of a token only depend on the document and the feature set, so folds of a cross-validation
+ * (or rounds of a feature-set sweep) share them and only build their own feature index and label arrays.
+ * Documents which are not in the cache (e.g. the test files) are handled like by CRFClassifier.
+ * The word shapes of a file are computed with the lowercase words known from that file only (instead of all training
+ * files read before it), the classifier learns the known words of all its training files for tagging.
+ * Optionally the optimizer starts from the weights of another classifier (warm start) instead of random weights.
+ * The classifier is saved and loaded as a plain CRFClassifier.
+ */
+class CachingCRFClassifier extends CRFClassifier<CoreLabel> {
+
+    /**
+     * Documents of the training files with the features of each token, extracted once per file and feature set.
+     * Shared by classifiers training at the same time; a file is read by the first classifier which needs it.
+     */
+    static class FeatureCache {
+        private final ConcurrentHashMap<String, Future<Entry>> entries = new ConcurrentHashMap<>();
+
+        /**
+         * Documents of a file with the features (per clique) of every token, in the order of the tokens
+         */
+        private static class Entry {
+            private final List<List<CoreLabel>> documents = new ArrayList<>();
+            private final IdentityHashMap<List<CoreLabel>, List<List<String>>[]> features = new IdentityHashMap<>();
+            private final Set<String> knownLCWords = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        }
+
+        private Entry get(File file, int featureSet, CachingCRFClassifier extractor) throws InterruptedException, ExecutionException {
+            String key = file.getPath() + "#" + featureSet;
+            Future<Entry> entry = entries.get(key);
+            if (entry == null) {
+                FutureTask<Entry> task = new FutureTask<>(() -> extractor.extract(file));
+                entry = entries.putIfAbsent(key, task);
+                if (entry == null) {
+                    entry = task;
+                    task.run();
+                }
+            }
+            return entry.get();
+        }
+    }
+
+    private final Map<List<CoreLabel>, List<List<String>>[]> cachedFeatures = new IdentityHashMap<>();
+    private CRFClassifier<CoreLabel> warmStart;
+    private int iterations = -1;
+    private int seededWeights = 0;
+    private int weights = 0;
+
+    /**
+     * @param props Properties for training
+     */
+    public CachingCRFClassifier(Properties props) {
+        super(props);
+    }
+
+    /**
+     * Trains the classifier on the documents of the training files, using the features in the cache.
+     * @param trainFiles Training files (tab-separated)
+     * @param featureSet Feature set the classifier was created with, part of the cache key
+     * @param cache Feature cache
+     */
+    public void train(File[] trainFiles, int featureSet, FeatureCache cache) {
+        if (flags.useReverse || flags.useEmbedding) {
+            // features depend on more than the document
+            train();
+            return;
+        }
+        List<List<CoreLabel>> documents = new ArrayList<>();
+        try {
+            for (File file : trainFiles) {
+                FeatureCache.Entry entry = cache.get(file, featureSet, this);
+                documents.addAll(entry.documents);
+                cachedFeatures.putAll(entry.features);
+                learnKnownLCWords(entry.knownLCWords);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        train(documents, makeReaderAndWriter());
+        // the documents stay in the cache, the classifier must not keep them
+        cachedFeatures.clear();
+    }
+
+    /**
+     * Lets the optimizer start from the weights of another classifier, mapped by feature name and label.
+     * @param source Trained classifier, null for a cold start
+     */
+    public void setWarmStart(CRFClassifier<CoreLabel> source) {
+        this.warmStart = source;
+    }
+
+    /**
+     * @return Number of QN iterations of the last training, -1 if unknown (not trained or not QN)
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return Number of weights the last training took over from the warm start classifier (0 for a cold start)
+     */
+    public int getSeededWeights() {
+        return seededWeights;
+    }
+
+    /**
+     * @return Number of weights of the last warm-started training (0 for a cold start)
+     */
+    public int getWeights() {
+        return weights;
+    }
+
+    @Override
+    public Minimizer<DiffFunction> getMinimizer(int featurePruneIteration, Evaluator[] evaluators) {
+        Minimizer<DiffFunction> minimizer = super.getMinimizer(featurePruneIteration, evaluators);
+        if (minimizer instanceof QNMinimizer) {
+            ((QNMinimizer) minimizer).setIterationCallbackFunction(new CallbackFunction() {
+                @Override
+                public void callback(Object... args) {
+                    iterations = (Integer) args[1];
+                }
+            });
+        }
+        if (warmStart == null) {
+            return minimizer;
+        }
+        return new Minimizer<DiffFunction>() {
+            @Override
+            public double[] minimize(DiffFunction function, double functionTolerance, double[] initial) {
+                return minimizer.minimize(function, functionTolerance, seed(initial));
+            }
+
+            @Override
+            public double[] minimize(DiffFunction function, double functionTolerance, double[] initial, int maxIterations) {
+                return minimizer.minimize(function, functionTolerance, seed(initial), maxIterations);
+            }
+        };
+    }
+
+    /**
+     * Overwrites the initial weights with the weights of the warm start classifier for every feature and label both
+     * classifiers know. The weights are laid out feature by feature, each with one weight per label of its clique.
+     */
+    private double[] seed(double[] initial) {
+        Index<String> features = field(this, "featureIndex");
+        List<Index<CRFLabel>> labels = field(this, "labelIndices");
+        int[] cliques = field(this, "map");
+        Index<String> sourceFeatures = field(warmStart, "featureIndex");
+        List<Index<CRFLabel>> sourceLabels = field(warmStart, "labelIndices");
+        int[] sourceCliques = field(warmStart, "map");
+        double[][] sourceWeights = field(warmStart, "weights");
+        int index = 0;
+        int seeded = 0;
+
+        for (int i=0; i<cliques.length; i++) {
+            Index<CRFLabel> cliqueLabels = labels.get(cliques[i]);
+            int source = sourceFeatures.indexOf(features.get(i));
+            if (source >= 0 && sourceCliques[source] == cliques[i]) {
+                Index<CRFLabel> sourceCliqueLabels = sourceLabels.get(cliques[i]);
+                for (int k=0; k<cliqueLabels.size(); k++) {
+                    int sourceLabel = sourceCliqueLabels.indexOf(mapLabel(cliqueLabels.get(k)));
+                    if (sourceLabel >= 0) {
+                        initial[index + k] = sourceWeights[source][sourceLabel];
+                        seeded++;
+                    }
+                }
+            }
+            index += cliqueLabels.size();
+        }
+        seededWeights = seeded;
+        weights = initial.length;
+        return initial;
+    }
+
+    /**
+     * Translates a label (a sequence of class indices) into the class indices of the warm start classifier.
+     */
+    private CRFLabel mapLabel(CRFLabel label) {
+        int[] classes = label.getLabel();
+        int[] mapped = new int[classes.length];
+        for (int i=0; i<classes.length; i++) {
+            mapped[i] = warmStart.classIndex.indexOf(classIndex.get(classes[i]));
+        }
+        return new CRFLabel(mapped);
+    }
+
+    /**
+     * Reads a package-private field of CRFClassifier, which has no accessors for its weights and indices.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T field(CRFClassifier<CoreLabel> classifier, String name) {
+        try {
+            Field field = CRFClassifier.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return (T) field.get(classifier);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("CRFClassifier." + name + " not accessible", e);
+        }
+    }
+
+    private void learnKnownLCWords(Set<String> words) {
+        if (!flags.useKnownLCWords) {
+            return;
+        }
+        for (String word : words) {
+            if (knownLCWords.size() >= flags.maxAdditionalKnownLCWords) {
+                break;
+            }
+            knownLCWords.add(word);
+        }
+    }
+
+    /**
+     * Reads the documents of a file (prepared like for training) and extracts the features of every token.
+     * A training file which the binary corpus holds (see {@link BinaryCorpus#configured()}) is taken from there.
+     */
+    private FeatureCache.Entry extract(File file) throws IOException {
+        Metrics.Sample timer = Metrics.timer("snlp.features").start();
+        FeatureCache.Entry entry = new FeatureCache.Entry();
+        ObjectBank<List<CoreLabel>> source;
+        BinaryCorpus corpus = BinaryCorpus.configured();
+        int index = corpus == null ? -1 : corpus.findStanford(file);
+        if (index >= 0) {
+            List<List<CoreLabel>> corpusDocuments = Collections.singletonList(
+                    corpus.stanfordDocument(index, BinaryCorpus.isAnnoOnly(file)));
+            source = new ObjectBank<>(new ReaderIteratorFactory(new StringReader("")), reader -> corpusDocuments.iterator());
+        } else {
+            source = new ObjectBank<>(new ResettableReaderIteratorFactory(Collections.singleton(file), flags.inputEncoding),
+                    makeReaderAndWriter());
+        }
+        ObjectBank<List<CoreLabel>> documents = new ObjectBankWrapper<>(flags, source,
+                flags.useKnownLCWords ? entry.knownLCWords : Collections.emptySet());
+        for (List<CoreLabel> document : documents) {
+            @SuppressWarnings("unchecked")
+            List<List<String>>[] features = (List<List<String>>[]) new List<?>[document.size()];
+            PaddedList<CoreLabel> padded = new PaddedList<>(document, pad);
+            for (int loc=0; loc<document.size(); loc++) {
+                features[loc] = extractFeatures(padded, loc);
+            }
+            entry.documents.add(document);
+            entry.features.put(document, features);
+            Metrics.counter("snlp.features.tokens").add(document.size());
+        }
+        timer.stop();
+        return entry;
+    }
+
+    /**
+     * Features of a token per clique size, the same as CRFClassifier.makeDatum() extracts.
+     */
+    private List<List<String>> extractFeatures(PaddedList<CoreLabel> padded, int loc) {
+        List<List<String>> features = new ArrayList<>(windowSize);
+        Collection<Clique> done = new HashSet<>();
+        for (int i=0; i<windowSize; i++) {
+            List<String> featuresC = new ArrayList<>();
+            List<Clique> windowCliques = FeatureFactory.getCliques(i, 0);
+            windowCliques.removeAll(done);
+            done.addAll(windowCliques);
+            for (Clique c : windowCliques) {
+                for (FeatureFactory<CoreLabel> featureFactory : featureFactories) {
+                    featuresC.addAll(featureFactory.getCliqueFeatures(padded, loc, c));
+                }
+            }
+            features.add(featuresC);
+        }
+        return features;
+    }
+
+    @Override
+    public CRFDatum<List<String>, CRFLabel> makeDatum(List<CoreLabel> info, int loc, List<FeatureFactory<CoreLabel>> featureFactories) {
+        List<List<String>>[] features = cachedFeatures.get(info);
+        if (features == null) {
+            return super.makeDatum(info, loc, featureFactories);
+        }
+
+        PaddedList<CoreLabel> padded = new PaddedList<>(info, pad);
+        int[] labels = new int[windowSize];
+        for (int i=0; i<windowSize; i++) {
+            String answer = padded.get(loc + i - windowSize + 1).get(CoreAnnotations.AnswerAnnotation.class);
+            labels[i] = classIndex.indexOf(answer);
+        }
+        List<double[]> featureVals = new ArrayList<>(windowSize);
+        for (int i=0; i<windowSize; i++) {
+            featureVals.add(null);
+        }
+        return new CRFDatum<>(features[loc], new CRFLabel(labels), featureVals);
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Line reader for WebAnno export files (CoNLL 2002, "token label" per line, empty lines between sentences).
+ * The file is read in blocks into a reused byte buffer and the lines are scanned as UTF-8 bytes:
+ * line ends, columns and labels are found without decoding, only the token is decoded into a reused char buffer and
+ * the label is handed out as a shared {@link Label} instance, so reading a file allocates no objects per line.
+ */
+class ConllReader implements Closeable {
+
+    /**
+     * Annotation of a token, e.g. "O" or "B-GOODS". There is only one instance per distinct annotation.
+     */
+    static class Label {
+        private static final ConcurrentHashMap<String, Label> vocabulary = new ConcurrentHashMap<>();
+        /** Label of tokens outside of any annotation */
+        static final Label O = of("O");
+
+        /** Whole annotation, e.g. "B-GOODS" */
+        final String name;
+        /** Part in front of the first '-', e.g. "B" */
+        final String prefix;
+        /** Part behind the first '-' (up to a second one), e.g. "GOODS", null if there is no '-' */
+        final String type;
+        private final byte[] utf8;
+
+        private Label(String name) {
+            int prefixEnd = name.indexOf('-');
+            int typeEnd = prefixEnd < 0 ? -1 : name.indexOf('-', prefixEnd + 1);
+            this.name = name;
+            this.prefix = prefixEnd < 0 ? name : name.substring(0, prefixEnd);
+            this.type = prefixEnd < 0 ? null : name.substring(prefixEnd + 1, typeEnd < 0 ? name.length() : typeEnd);
+            this.utf8 = name.getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Returns the shared instance of an annotation.
+         * @param name Annotation
+         * @return Label
+         */
+        static Label of(String name) {
+            return vocabulary.computeIfAbsent(name, Label::new);
+        }
+
+        private boolean matches(byte[] text, int start, int end) {
+            if (utf8.length != end - start) {
+                return false;
+            }
+            for (int i=start; i<end; i++) {
+                if (text[i] != utf8[i - start]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final InputStream source;
+    private byte[] buffer;
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+    private boolean skipLF = false;
+
+    /** Labels seen by this reader, looked up by the characters in the buffer (open addressing) */
+    private Label[] labels = new Label[32];
+    private int labelCount = 0;
+
+    private boolean blank;
+    private char[] token = new char[64];
+    private int tokenLength;
+    private Label label;
+
+    /**
+     * @param file CoNLL file (UTF-8)
+     * @throws IOException
+     */
+    public ConllReader(File file) throws IOException {
+        source = new FileInputStream(file);
+        buffer = new byte[1 << 16];
+    }
+
+    /**
+     * Moves on to the next line. Lines end with '\n', '\r' or "\r\n" just like for BufferedReader.readLine().
+     * The columns are the same as line.trim().split(" ") would give.
+     * @return False if the end of the file is reached
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        int start = pos;
+        int end;
+
+        while (true) {
+            if (skipLF && start < limit) {
+                skipLF = false;
+                if (buffer[start] == '\n') {
+                    start++;
+                }
+            }
+            end = start;
+            while (end < limit && buffer[end] != '\n' && buffer[end] != '\r') {
+                end++;
+            }
+            if (end < limit || (eof && start < limit)) {
+                break;
+            }
+            if (eof) {
+                pos = limit;
+                return false;
+            }
+            start = fill(start);
+        }
+
+        if (end < limit) {
+            skipLF = buffer[end] == '\r';
+            pos = end + 1;
+        } else {
+            pos = end;
+        }
+        blank = start == end;
+        if (!blank) {
+            parse(start, end);
+        }
+        return true;
+    }
+
+    private void parse(int start, int end) throws IOException {
+        // bytes of multi-byte characters are negative, so only ASCII control characters and blanks are trimmed
+        while (start < end && buffer[start] >= 0 && buffer[start] <= ' ') {
+            start++;
+        }
+        while (end > start && buffer[end - 1] >= 0 && buffer[end - 1] <= ' ') {
+            end--;
+        }
+        int separator = start;
+        while (separator < end && buffer[separator] != ' ') {
+            separator++;
+        }
+        if (separator == end) {
+            throw new IOException("Missing annotation: " + new String(buffer, start, end - start, StandardCharsets.UTF_8));
+        }
+        int labelEnd = separator + 1;
+        while (labelEnd < end && buffer[labelEnd] != ' ') {
+            labelEnd++;
+        }
+        decodeToken(start, separator);
+        label = lookup(separator + 1, labelEnd);
+    }
+
+    private void decodeToken(int start, int end) {
+        if (token.length < end - start) {
+            token = new char[Math.max(end - start, token.length * 2)];
+        }
+        for (int i=start; i<end; i++) {
+            if (buffer[i] < 0) {
+                // not plain ASCII
+                String s = new String(buffer, start, end - start, StandardCharsets.UTF_8);
+                tokenLength = s.length();
+                s.getChars(0, tokenLength, token, 0);
+                return;
+            }
+            token[i - start] = (char) buffer[i];
+        }
+        tokenLength = end - start;
+    }
+
+    private Label lookup(int start, int end) {
+        // most tokens have the same label as the previous one (usually "O")
+        if (label != null && label.matches(buffer, start, end)) {
+            return label;
+        }
+        int hash = 0;
+        for (int i=start; i<end; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        int mask = labels.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (labels[slot] != null) {
+            if (labels[slot].matches(buffer, start, end)) {
+                return labels[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        Label l = Label.of(new String(buffer, start, end - start, StandardCharsets.UTF_8));
+        labels[slot] = l;
+        if (++labelCount * 2 > labels.length) {
+            rehash();
+        }
+        return l;
+    }
+
+    private void rehash() {
+        Label[] old = labels;
+        labels = new Label[old.length * 2];
+        int mask = labels.length - 1;
+        for (Label l : old) {
+            if (l != null) {
+                int hash = 0;
+                for (byte b : l.utf8) {
+                    hash = 31 * hash + b;
+                }
+                int slot = (hash ^ (hash >>> 16)) & mask;
+                while (labels[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                labels[slot] = l;
+            }
+        }
+    }
+
+    /**
+     * Moves the unfinished line to the front of the buffer (growing it if the line fills it) and reads more characters.
+     * @return New start of the unfinished line
+     */
+    private int fill(int start) throws IOException {
+        int length = limit - start;
+        if (length == buffer.length) {
+            byte[] larger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, start, larger, 0, length);
+            buffer = larger;
+        } else {
+            System.arraycopy(buffer, start, buffer, 0, length);
+        }
+        limit = length;
+        while (limit < buffer.length) {
+            int n = source.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                eof = true;
+                break;
+            }
+            limit += n;
+        }
+        return 0;
+    }
+
+    /**
+     * @return True if the current line is empty (end of a sentence)
+     */
+    public boolean isBlank() {
+        return blank;
+    }
+
+    /**
+     * @return Buffer holding the token of the current line from index 0, valid until the next call of next()
+     */
+    public char[] token() {
+        return token;
+    }
+
+    /**
+     * @return Length of the token in the buffer
+     */
+    public int tokenLength() {
+        return tokenLength;
+    }
+
+    /**
+     * @return Annotation of the current token
+     */
+    public Label label() {
+        return label;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
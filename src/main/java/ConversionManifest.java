@@ -0,0 +1,180 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Record of the input files an output directory was converted from: for every input its content hash (SHA-256),
+ * size and modification time, and the output file written from it. Saved as a tab-separated text file.
+ * An input is up to date if its size and modification time are unchanged, or else if its content hash is unchanged
+ * (e.g. after it was exported again without changes), and its output still exists.
+ */
+class ConversionManifest {
+
+    /**
+     * State of an input file when it was converted.
+     */
+    static class Entry {
+        final String hash;
+        final long size;
+        final long lastModified;
+        final String output;
+
+        Entry(String hash, long size, long lastModified, String output) {
+            this.hash = hash;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.output = output;
+        }
+    }
+
+    private final File file;
+    /** Entries by the name of the input file */
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    private ConversionManifest(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads a manifest.
+     * @param file Manifest file
+     * @return Manifest, empty if the file does not exist yet
+     * @throws IOException
+     */
+    public static ConversionManifest load(File file) throws IOException {
+        ConversionManifest manifest = new ConversionManifest(file);
+        if (!file.isFile()) {
+            return manifest;
+        }
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split("\t");
+                if (columns.length != 5) {
+                    throw new IOException("Invalid line in " + file.getPath() + ": " + line);
+                }
+                manifest.entries.put(columns[3], new Entry(columns[0], Long.parseLong(columns[1]), Long.parseLong(columns[2]), columns[4]));
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest to a temporary file first and then replaces the old one, so that an interrupted run
+     * leaves the previous manifest behind.
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            bw.write("# hash\tsize\tlast modified\tinput\toutput");
+            bw.newLine();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                bw.write(entry.hash + "\t" + entry.size + "\t" + entry.lastModified + "\t" + e.getKey() + "\t" + entry.output);
+                bw.newLine();
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return Names of the recorded input files
+     */
+    public List<String> inputs() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * @param input Name of an input file
+     * @return Recorded state of the input, null if it was never converted
+     */
+    public Entry get(String input) {
+        return entries.get(input);
+    }
+
+    /**
+     * Records that an input was converted.
+     * @param input Name of the input file
+     * @param entry State of the input it was converted in
+     */
+    public void put(String input, Entry entry) {
+        entries.put(input, entry);
+    }
+
+    /**
+     * @param input Name of an input file which no longer exists
+     */
+    public void remove(String input) {
+        entries.remove(input);
+    }
+
+    /**
+     * Compares an input with its recorded state without reading it.
+     * @param input Input file
+     * @param output Output file it is converted into
+     * @return True if size and modification time are unchanged and the output exists
+     */
+    public boolean isUnchanged(File input, File output) {
+        Entry entry = entries.get(input.getName());
+        return entry != null && entry.size == input.length() && entry.lastModified == input.lastModified()
+                && entry.output.equals(output.getName()) && output.isFile();
+    }
+
+    /**
+     * Reads the current state of an input.
+     * @param input Input file
+     * @param output Output file it is converted into
+     * @return State with the content hash
+     * @throws IOException
+     */
+    public static Entry state(File input, File output) throws IOException {
+        long size = input.length();
+        long lastModified = input.lastModified();
+        return new Entry(hash(input), size, lastModified, output.getName());
+    }
+
+    /**
+     * @param file File
+     * @return SHA-256 of its content in hex
+     * @throws IOException
+     */
+    public static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
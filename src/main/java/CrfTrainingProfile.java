@@ -0,0 +1,206 @@
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * Training performance settings of the Stanford CRF which are layered on top of every feature set: the number of
+ * threads computing the gradient, the optimizer, when the optimizer stops and where it starts. They only change how
+ * long training takes (and to a small degree the weights found), never which features are used.
+ */
+class CrfTrainingProfile {
+
+    /**
+     * Optimizer of the CRF weights.
+     */
+    enum Optimizer {
+        /** Quasi-Newton (L-BFGS) over the whole training set, the CoreNLP default */
+        QN,
+        /** A few passes of stochastic gradient descent for a quick start, then Quasi-Newton */
+        SGD_TO_QN
+    }
+
+    /**
+     * Starting point of the optimizer in a cross-validation.
+     */
+    enum WarmStart {
+        /** Every fold starts from CoreNLP's random initial weights */
+        OFF,
+        /** The first fold starts cold, the others start from its weights */
+        FOLD,
+        /** Every fold starts from the weights of a saved model (e.g. trained on all data) */
+        MODEL
+    }
+
+    private int gradientThreads = 1;
+    private Optimizer optimizer = Optimizer.QN;
+    private double tolerance = 1e-4;
+    private int maxIterations = 0;
+    private int sgdPasses = 1;
+    private WarmStart warmStart = WarmStart.OFF;
+    private File warmStartModel;
+
+    /**
+     * Reads the profile from the system properties:
+     * -Dnlp.crf.gradThreads=n (threads computing the gradient, default: given value),
+     * -Dnlp.crf.optimizer=qn|sgd-qn (default: qn),
+     * -Dnlp.crf.tolerance=x (relative change of the objective at which QN stops, default: 1e-4),
+     * -Dnlp.crf.maxIterations=n (QN iterations, 0 = until converged, default: 0),
+     * -Dnlp.crf.sgdPasses=n (SGD passes before QN takes over, default: 1),
+     * -Dnlp.crf.warmStart=off|fold|&lt;model file&gt; (starting weights of the folds, default: off).
+     * @param defaultThreads Number of gradient threads if none is set
+     * @return Training profile
+     */
+    public static CrfTrainingProfile fromSystemProperties(int defaultThreads) {
+        CrfTrainingProfile profile = new CrfTrainingProfile();
+        profile.setGradientThreads(Integer.getInteger("nlp.crf.gradThreads", defaultThreads));
+        String optimizer = System.getProperty("nlp.crf.optimizer", "qn");
+        switch (optimizer.toLowerCase()) {
+            case "qn":
+                profile.setOptimizer(Optimizer.QN);
+                break;
+            case "sgd-qn":
+                profile.setOptimizer(Optimizer.SGD_TO_QN);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown optimizer: " + optimizer);
+        }
+        profile.setTolerance(Double.parseDouble(System.getProperty("nlp.crf.tolerance", "1e-4")));
+        profile.setMaxIterations(Integer.getInteger("nlp.crf.maxIterations", 0));
+        profile.setSgdPasses(Integer.getInteger("nlp.crf.sgdPasses", 1));
+        String warmStart = System.getProperty("nlp.crf.warmStart", "off");
+        if (warmStart.equalsIgnoreCase("off")) {
+            profile.setWarmStart(WarmStart.OFF, null);
+        } else if (warmStart.equalsIgnoreCase("fold")) {
+            profile.setWarmStart(WarmStart.FOLD, null);
+        } else {
+            profile.setWarmStart(WarmStart.MODEL, new File(warmStart));
+        }
+        return profile;
+    }
+
+    /**
+     * @param gradientThreads Number of threads computing the gradient of the objective function
+     */
+    public void setGradientThreads(int gradientThreads) {
+        this.gradientThreads = Math.max(1, gradientThreads);
+    }
+
+    /**
+     * @param optimizer Optimizer of the CRF weights
+     */
+    public void setOptimizer(Optimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * @param tolerance Relative change of the objective function below which QN stops
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @param maxIterations Maximum number of QN iterations, 0 = until converged
+     */
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @param sgdPasses Passes of SGD over the training data before QN takes over (SGD_TO_QN only)
+     */
+    public void setSgdPasses(int sgdPasses) {
+        this.sgdPasses = sgdPasses;
+    }
+
+    /**
+     * Sets where the optimizer starts. Weights are taken over by feature name and label, features unknown to the
+     * source keep their initial weights.
+     * @param warmStart Starting point of the folds
+     * @param model Model the folds start from (MODEL only)
+     */
+    public void setWarmStart(WarmStart warmStart, File model) {
+        this.warmStart = warmStart;
+        this.warmStartModel = model;
+    }
+
+    /**
+     * @return Starting point of the folds
+     */
+    public WarmStart getWarmStart() {
+        return warmStart;
+    }
+
+    /**
+     * @return Model the folds start from, null unless MODEL
+     */
+    public File getWarmStartModel() {
+        return warmStartModel;
+    }
+
+    /**
+     * @param maxIterations Maximum number of QN iterations, 0 = until converged
+     * @return Copy of this profile with another iteration budget
+     */
+    public CrfTrainingProfile withMaxIterations(int maxIterations) {
+        CrfTrainingProfile profile = copy();
+        profile.maxIterations = maxIterations;
+        return profile;
+    }
+
+    /**
+     * @param warmStart Starting point of the folds
+     * @return Copy of this profile with another starting point (keeping the model)
+     */
+    public CrfTrainingProfile withWarmStart(WarmStart warmStart) {
+        CrfTrainingProfile profile = copy();
+        profile.warmStart = warmStart;
+        return profile;
+    }
+
+    private CrfTrainingProfile copy() {
+        CrfTrainingProfile profile = new CrfTrainingProfile();
+        profile.gradientThreads = gradientThreads;
+        profile.optimizer = optimizer;
+        profile.tolerance = tolerance;
+        profile.maxIterations = maxIterations;
+        profile.sgdPasses = sgdPasses;
+        profile.warmStart = warmStart;
+        profile.warmStartModel = warmStartModel;
+        return profile;
+    }
+
+    /**
+     * Adds the settings to the properties of a feature set.
+     * @param props Properties for training
+     */
+    public void apply(Properties props) {
+        props.setProperty("multiThreadGrad", Integer.toString(gradientThreads));
+        props.setProperty("tolerance", Double.toString(tolerance));
+
+        switch (optimizer) {
+            case QN:
+                props.setProperty("useQN", "true");
+                props.setProperty("useSGDtoQN", "false");
+                if (maxIterations > 0) {
+                    props.setProperty("maxQNItr", Integer.toString(maxIterations));
+                }
+                break;
+            case SGD_TO_QN:
+                props.setProperty("useQN", "false");
+                props.setProperty("useSGDtoQN", "true");
+                props.setProperty("SGDPasses", Integer.toString(sgdPasses));
+                if (maxIterations > 0) {
+                    props.setProperty("QNPasses", Integer.toString(maxIterations));
+                }
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "gradient threads: " + gradientThreads + ", optimizer: " + optimizer + ", tolerance: " + tolerance
+                + ", max. iterations: " + (maxIterations > 0 ? Integer.toString(maxIterations) : "-")
+                + (optimizer == Optimizer.SGD_TO_QN ? ", SGD passes: " + sgdPasses : "")
+                + ", warm start: " + (warmStart == WarmStart.MODEL ? warmStartModel.getPath() : warmStart);
+    }
+}
@@ -0,0 +1,409 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Assignment of the annotated training files to the folds of the cross-validation, stratified by domain and by the
+ * entities (GOODS, ASSET, SERVICE) the files contain. The training files are read from the domain directories of the
+ * annotations (annotated/domain/file), OpenNLP files (.train) or Stanford NLP files (.tsv).
+ * The folds exist only as a manifest (.manifest in the folds directory) listing the fold of every file; the
+ * cross-validation takes the files of each fold from the manifest and trains on the annotated files themselves, so a
+ * new assignment (another number of folds or another seed) writes nothing but the manifest.
+ * Set the number of folds with -Dnlp.folds=k (default: 10) and shuffle the assignment with -Dnlp.folds.seed=n.
+ */
+class FoldPlanner {
+    private static final Pattern openNlpEntity = Pattern.compile("<START:([^>]+)>");
+
+    /**
+     * Annotated training file with its fold.
+     */
+    static class Document {
+        final String domain;
+        final String name;
+        /** Number of entities by type */
+        final Map<String, Integer> entities;
+        int fold = -1;
+
+        Document(String domain, String name, Map<String, Integer> entities) {
+            this.domain = domain;
+            this.name = name;
+            this.entities = entities;
+        }
+
+        /**
+         * @param annotations Directory of the domain directories
+         * @return Annotated file
+         */
+        File file(File annotations) {
+            return new File(new File(annotations, domain), name);
+        }
+
+        int entityCount() {
+            int count = 0;
+            for (int n : entities.values()) {
+                count += n;
+            }
+            return count;
+        }
+    }
+
+    private final int k;
+    /** Seed of the shuffled assignment, null = files with the most entities first */
+    private final Long seed;
+    private final List<Document> documents;
+
+    private FoldPlanner(int k, Long seed, List<Document> documents) {
+        this.k = k;
+        this.seed = seed;
+        this.documents = documents;
+    }
+
+    /**
+     * @return Number of folds set with -Dnlp.folds (default: 10)
+     */
+    public static int configuredFolds() {
+        return Integer.getInteger("nlp.folds", 10);
+    }
+
+    /**
+     * @return Seed set with -Dnlp.folds.seed, null if none is set
+     */
+    public static Long configuredSeed() {
+        return Long.getLong("nlp.folds.seed");
+    }
+
+    /**
+     * Plans the folds of the annotated files.
+     * @param annotations Directory of the domain directories
+     * @param k Number of folds
+     * @param seed Seed of the order the files are placed in, null = files with the most entities first
+     * @return Folds
+     * @throws IOException
+     */
+    public static FoldPlanner plan(File annotations, int k, Long seed) throws IOException {
+        if (k < 2) {
+            throw new IllegalArgumentException("At least 2 folds are needed: " + k);
+        }
+        FoldPlanner folds = new FoldPlanner(k, seed, read(annotations));
+        folds.assign();
+        return folds;
+    }
+
+    /**
+     * Reads the training files of all domains and counts their entities.
+     * @param annotations Directory of the domain directories
+     * @return Documents, not yet assigned to folds
+     * @throws IOException
+     */
+    private static List<Document> read(File annotations) throws IOException {
+        List<Document> documents = new ArrayList<>();
+        File[] domains = annotations.listFiles(File::isDirectory);
+        if (domains == null) {
+            throw new IOException("No annotations in " + annotations.getPath());
+        }
+        Arrays.sort(domains);
+        for (File domain : domains) {
+            File[] files = domain.listFiles(File::isFile);
+            Arrays.sort(files);
+            for (File f : files) {
+                documents.add(new Document(domain.getName(), f.getName(), countEntities(f)));
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Counts the entities of a training file: annotations (&lt;START:TYPE&gt;) of OpenNLP files, runs of tokens with the
+     * same label other than O of tab-separated Stanford NLP files.
+     */
+    private static Map<String, Integer> countEntities(File file) throws IOException {
+        Map<String, Integer> entities = new TreeMap<>();
+        boolean openNlp = file.getName().endsWith(".train");
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String previous = "O";
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (openNlp) {
+                    Matcher m = openNlpEntity.matcher(line);
+                    while (m.find()) {
+                        entities.merge(m.group(1), 1, Integer::sum);
+                    }
+                } else {
+                    int tab = line.lastIndexOf('\t');
+                    String label = tab < 0 ? "O" : line.substring(tab + 1);
+                    if (!label.equals("O") && !label.equals(previous)) {
+                        entities.merge(label, 1, Integer::sum);
+                    }
+                    previous = label;
+                }
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Assigns every document to one of k folds, which hold at most n/k documents (rounded up). The documents of a
+     * domain are spread as evenly as possible over the folds; among the folds with room and the fewest documents of
+     * its domain a document goes to the fold whose shares of all documents and of all entities of each type grow the
+     * least (as sum of squares), i.e. mostly to the fold with the fewest entities of the types the document has.
+     * The documents with the most entities are placed first, or in random order if there is a seed.
+     */
+    private void assign() {
+        // documents of each domain per fold
+        Map<String, int[]> byDomain = new TreeMap<>();
+        Map<String, Integer> totals = new TreeMap<>();
+        for (Document d : documents) {
+            byDomain.computeIfAbsent(d.domain, key -> new int[k]);
+            for (Map.Entry<String, Integer> e : d.entities.entrySet()) {
+                totals.merge(e.getKey(), e.getValue(), Integer::sum);
+            }
+        }
+        List<String> types = new ArrayList<>(totals.keySet());
+        int capacity = (documents.size() + k - 1) / k;
+        int[] size = new int[k];
+        int[][] entities = new int[k][types.size()];
+
+        List<Document> order = new ArrayList<>(documents);
+        if (seed == null) {
+            order.sort(Comparator.comparingInt(Document::entityCount).reversed());
+        } else {
+            Collections.shuffle(order, new Random(seed));
+        }
+        for (Document d : order) {
+            int[] inDomain = byDomain.get(d.domain);
+            int best = -1;
+            double bestLoad = 0;
+            for (int f=0; f<k; f++) {
+                if (size[f] >= capacity || best >= 0 && inDomain[f] > inDomain[best]) {
+                    continue;
+                }
+                // increase of the sum of squared shares of the fold
+                double load = (2.0 * size[f] + 1) / square(documents.size());
+                for (int t=0; t<types.size(); t++) {
+                    int n = d.entities.getOrDefault(types.get(t), 0);
+                    load += n * (2.0 * entities[f][t] + n) / square(totals.get(types.get(t)));
+                }
+                if (best < 0 || inDomain[f] < inDomain[best] || load < bestLoad) {
+                    best = f;
+                    bestLoad = load;
+                }
+            }
+            d.fold = best;
+            inDomain[best]++;
+            size[best]++;
+            for (int t=0; t<types.size(); t++) {
+                entities[best][t] += d.entities.getOrDefault(types.get(t), 0);
+            }
+        }
+    }
+
+    private static double square(double x) {
+        return x * x;
+    }
+
+    /**
+     * Records the folds in the manifest of the folds directory. Fold directories 0, 1, ... with copies of the
+     * annotated files from earlier versions are deleted.
+     * @param folds Directory of the folds
+     * @throws IOException
+     */
+    public void save(File folds) throws IOException {
+        if (!folds.isDirectory() && !folds.mkdirs()) {
+            throw new IOException("Cannot create " + folds.getPath());
+        }
+        File[] dirs = folds.listFiles(f -> f.isDirectory() && f.getName().matches("\\d+"));
+        for (File dir : dirs) {
+            System.out.println("Removing " + "\"" + dir.getPath() + "\"");
+            for (File old : dir.listFiles()) {
+                Files.delete(old.toPath());
+            }
+            Files.delete(dir.toPath());
+        }
+
+        File file = new File(folds, ".manifest");
+        File tmp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            bw.write("# folds=" + k + " seed=" + (seed == null ? "-" : seed));
+            bw.newLine();
+            bw.write("# fold\tdomain\tfile\tentities");
+            bw.newLine();
+            for (Document d : documents) {
+                StringBuilder entities = new StringBuilder();
+                for (Map.Entry<String, Integer> e : d.entities.entrySet()) {
+                    entities.append(entities.length() == 0 ? "" : ",").append(e.getKey()).append('=').append(e.getValue());
+                }
+                bw.write(d.fold + "\t" + d.domain + "\t" + d.name + "\t" + entities);
+                bw.newLine();
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads the folds recorded in the manifest of a folds directory.
+     * @param folds Directory of the folds
+     * @return Folds
+     * @throws IOException If there is no manifest or it is invalid
+     */
+    public static FoldPlanner load(File folds) throws IOException {
+        File file = new File(folds, ".manifest");
+        List<Document> documents = new ArrayList<>();
+        int k = -1;
+        Long seed = null;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("# folds=")) {
+                    String[] settings = line.substring(2).split(" ");
+                    k = Integer.parseInt(settings[0].substring("folds=".length()));
+                    String s = settings[1].substring("seed=".length());
+                    seed = s.equals("-") ? null : Long.valueOf(s);
+                }
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split("\t", -1);
+                if (columns.length != 4) {
+                    throw new IOException("Invalid line in " + file.getPath() + ": " + line);
+                }
+                Map<String, Integer> entities = new TreeMap<>();
+                for (String entity : columns[3].split(",")) {
+                    int eq = entity.indexOf('=');
+                    if (eq > 0) {
+                        entities.put(entity.substring(0, eq), Integer.parseInt(entity.substring(eq + 1)));
+                    }
+                }
+                Document d = new Document(columns[1], columns[2], entities);
+                d.fold = Integer.parseInt(columns[0]);
+                documents.add(d);
+            }
+        }
+        if (k < 0) {
+            throw new IOException("No number of folds in " + file.getPath());
+        }
+        return new FoldPlanner(k, seed, documents);
+    }
+
+    /**
+     * @return Number of folds
+     */
+    public int getFolds() {
+        return k;
+    }
+
+    /**
+     * Lists the annotated files of every fold, which the cross-validation trains and evaluates on.
+     * @param annotations Directory of the domain directories
+     * @return Files of each fold, in the order of the manifest
+     * @throws IOException If a file of the manifest no longer exists
+     */
+    public File[][] files(File annotations) throws IOException {
+        List<List<File>> folds = new ArrayList<>();
+        for (int j=0; j<k; j++) {
+            folds.add(new ArrayList<>());
+        }
+        for (Document d : documents) {
+            File file = d.file(annotations);
+            if (!file.isFile()) {
+                throw new IOException("File of fold " + d.fold + " not found (plan the folds again): " + file.getPath());
+            }
+            folds.get(d.fold).add(file);
+        }
+        File[][] files = new File[k][];
+        for (int j=0; j<k; j++) {
+            files[j] = folds.get(j).toArray(new File[folds.get(j).size()]);
+        }
+        return files;
+    }
+
+    /**
+     * Checks whether the folds were planned from the current annotated files with the given settings: the manifest
+     * lists exactly the files of the domain directories, none of them was changed after the manifest was written, and
+     * the number of folds and the seed are the same.
+     * @param annotations Directory of the domain directories
+     * @param folds Directory of the folds
+     * @param k Number of folds
+     * @param seed Seed, null = none
+     * @return True if the folds need not be planned again
+     */
+    public static boolean isUpToDate(File annotations, File folds, int k, Long seed) {
+        File manifest = new File(folds, ".manifest");
+        File[] domains = annotations.listFiles(File::isDirectory);
+        if (!manifest.isFile() || domains == null) {
+            return false;
+        }
+        TreeSet<String> current = new TreeSet<>();
+        for (File domain : domains) {
+            for (File f : domain.listFiles(File::isFile)) {
+                if (f.lastModified() > manifest.lastModified()) {
+                    return false;
+                }
+                current.add(domain.getName() + "/" + f.getName());
+            }
+        }
+        FoldPlanner recorded;
+        try {
+            recorded = load(folds);
+        } catch (IOException e) {
+            // e.g. a manifest of an older version, planned again
+            return false;
+        }
+        TreeSet<String> names = new TreeSet<>();
+        for (Document d : recorded.documents) {
+            names.add(d.domain + "/" + d.name);
+        }
+        return !current.isEmpty() && current.equals(names) && recorded.k == k && Objects.equals(recorded.seed, seed);
+    }
+
+    /**
+     * Prints the number of documents and entities of each fold.
+     */
+    public void print() {
+        TreeSet<String> types = new TreeSet<>();
+        for (Document d : documents) {
+            types.addAll(d.entities.keySet());
+        }
+        StringBuilder header = new StringBuilder(String.format("%-6s %6s", "Fold", "Files"));
+        for (String type : types) {
+            header.append(String.format(" %8s", type));
+        }
+        System.out.println(header);
+        for (int j=0; j<k; j++) {
+            int files = 0;
+            Map<String, Integer> entities = new TreeMap<>();
+            for (Document d : documents) {
+                if (d.fold == j) {
+                    files++;
+                    for (Map.Entry<String, Integer> e : d.entities.entrySet()) {
+                        entities.merge(e.getKey(), e.getValue(), Integer::sum);
+                    }
+                }
+            }
+            StringBuilder row = new StringBuilder(String.format("%-6d %6d", j, files));
+            for (String type : types) {
+                row.append(String.format(" %8d", entities.getOrDefault(type, 0)));
+            }
+            System.out.println(row);
+        }
+    }
+}
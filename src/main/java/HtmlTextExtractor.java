@@ -0,0 +1,367 @@
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.Tag;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Streaming extraction of the body text of an HTML report.
+ * Produces the same text as Jsoup's document.body().text() without building the DOM: the markup is scanned
+ * once and the text is handed out in blocks of roughly the given size, so memory stays bounded for any report size.
+ * Differences are limited to markup the HTML tree builder rearranges: text it moves (e.g. non-whitespace text
+ * directly inside a table) is kept in markup order, and whitespace inside a pre element is preserved
+ * based on the nesting of the markup even where misnested formatting elements are reconstructed.
+ */
+class HtmlTextExtractor implements TextSource {
+    private static final Set<String> voidTags = new HashSet<>(Arrays.asList(
+            "area", "base", "basefont", "bgsound", "br", "col", "command", "embed", "hr", "img", "input", "keygen",
+            "link", "meta", "param", "source", "track", "wbr"));
+    private static final Set<String> headTags = new HashSet<>(Arrays.asList(
+            "base", "basefont", "bgsound", "command", "link", "meta", "noframes", "script", "style", "title", "noscript"));
+    private static final Set<String> rawTextTags = new HashSet<>(Arrays.asList(
+            "script", "style", "title", "textarea", "xmp", "iframe", "noembed", "noframes"));
+    /** Length of the longest named character reference (&CounterClockwiseContourIntegral;) */
+    private static final int maxEntityLength = 33;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+    private boolean started = false;
+
+    private final int blockSize;
+    private final StringBuilder block = new StringBuilder();
+    private final StringBuilder run = new StringBuilder();
+    private boolean written = false;
+    private char lastChar = 0;
+    private boolean inBody = false;
+    private int preDepth = -1;
+
+    /**
+     * @param in HTML report
+     * @param blockSize Minimum size (in characters) of the text blocks handed out, except for the last one
+     */
+    public HtmlTextExtractor(Reader in, int blockSize) {
+        this.in = in;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public String nextBlock() throws IOException {
+        int c;
+        if (!started) {
+            // a byte order mark at the beginning is not part of the text
+            started = true;
+            if (peek(0) == 0xFEFF) {
+                read();
+            }
+        }
+        while (block.length() < blockSize && (c = read()) >= 0) {
+            if (c == '<' && isMarkup(peek(0))) {
+                flushRun();
+                readMarkup();
+            } else {
+                run.append((char) c);
+                // entities never contain whitespace, so long runs of text can safely be split there
+                if (run.length() >= blockSize && isWhitespace(c)) {
+                    flushRun();
+                } else if (run.length() >= 2 * blockSize) {
+                    // text without whitespace (e.g. an encoded attachment) is split anyway, but not within an entity
+                    flushRun(entityStart());
+                }
+            }
+        }
+        if (block.length() < blockSize) {
+            // the end of the report, a full block leaves the run (which may end within an entity) for the next one
+            flushRun();
+        }
+
+        if (block.length() == 0) {
+            return null;
+        }
+        String text = block.toString();
+        block.setLength(0);
+        return text;
+    }
+
+    /**
+     * Appends the collected text run to the block, decoding entities and normalising whitespace like Jsoup.
+     */
+    private void flushRun() {
+        flushRun(run.length());
+    }
+
+    /**
+     * Appends the collected text run up to the given index to the block and keeps the rest of it.
+     */
+    private void flushRun(int end) {
+        if (end == 0) {
+            return;
+        }
+        if (!inBody) {
+            // whitespace before the body is not part of it, anything else implicitly opens the body
+            int i = 0;
+            while (i < end && isWhitespace(run.charAt(i))) {
+                i++;
+            }
+            run.delete(0, i);
+            if (i == end) {
+                return;
+            }
+            inBody = true;
+            end -= i;
+        }
+        appendText(Parser.unescapeEntities(run.substring(0, end), false), preDepth >= 0 && preDepth <= 1);
+        run.delete(0, end);
+    }
+
+    /**
+     * @return Index of a '&' near the end of the run which may start an entity still being read, else the length
+     */
+    private int entityStart() {
+        int i = run.lastIndexOf("&");
+        return i >= 0 && i > run.length() - maxEntityLength ? i : run.length();
+    }
+
+    private void appendText(String text, boolean preserveWhitespace) {
+        if (preserveWhitespace) {
+            block.append(text);
+        } else {
+            boolean lastWasWhite = false;
+            boolean reachedNonWhite = false;
+            boolean stripLeading = lastChar == ' ';
+            for (int i=0; i<text.length(); i++) {
+                char c = text.charAt(i);
+                if (isWhitespace(c)) {
+                    if ((stripLeading && !reachedNonWhite) || lastWasWhite) {
+                        continue;
+                    }
+                    block.append(' ');
+                    lastWasWhite = true;
+                } else {
+                    block.append(c);
+                    lastWasWhite = false;
+                    reachedNonWhite = true;
+                }
+            }
+        }
+        if (block.length() > 0) {
+            written = true;
+            lastChar = block.charAt(block.length() - 1);
+        }
+    }
+
+    /**
+     * Adds the blank space Jsoup puts in front of block elements and line breaks.
+     */
+    private void separate() {
+        if (written && lastChar != ' ') {
+            block.append(' ');
+            lastChar = ' ';
+        }
+    }
+
+    /**
+     * Reads a tag, comment or declaration after the opening '<'.
+     */
+    private void readMarkup() throws IOException {
+        int c = read();
+        if (c == '!') {
+            if (peek(0) == '-' && peek(1) == '-') {
+                read();
+                read();
+                skipPast("-->");
+            } else {
+                skipPast(">");
+            }
+        } else if (c == '?') {
+            skipPast(">");
+        } else if (c == '/') {
+            String name = readTagName();
+            skipTag();
+            endTag(name);
+        } else {
+            String name = Character.toLowerCase((char) c) + readTagName();
+            skipTag();
+            startTag(name);
+        }
+    }
+
+    private void startTag(String name) throws IOException {
+        if (name.equals("html") || (name.equals("head") && !inBody)) {
+            return;
+        }
+        if (name.equals("body")) {
+            inBody = true;
+            return;
+        }
+        if (!inBody && !headTags.contains(name)) {
+            // content which does not belong to the head implicitly opens the body
+            inBody = true;
+        }
+
+        if (inBody && (name.equals("br") || Tag.valueOf(name).isBlock())) {
+            separate();
+        }
+
+        if (rawTextTags.contains(name)) {
+            if (!inBody || name.equals("script") || name.equals("style")) {
+                skipRawText(name);
+                return;
+            }
+            String content = readRawText(name);
+            if (name.equals("title") || name.equals("textarea")) {
+                appendText(Parser.unescapeEntities(content, false), true);
+            } else {
+                appendText(content, preDepth >= 0 && preDepth <= 1);
+            }
+            return;
+        }
+
+        if (name.equals("pre")) {
+            preDepth = 0;
+        } else if (preDepth >= 0 && !voidTags.contains(name)) {
+            preDepth++;
+        }
+    }
+
+    private void endTag(String name) {
+        if (name.equals("br")) {
+            separate();
+        } else if (name.equals("pre")) {
+            preDepth = -1;
+        } else if (preDepth > 0) {
+            preDepth--;
+        }
+    }
+
+    /**
+     * Reads the content of a raw text element (e.g. script) up to its end tag.
+     */
+    private String readRawText(String name) throws IOException {
+        StringBuilder content = new StringBuilder();
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == '<' && peek(0) == '/' && matchesIgnoreCase(1, name)) {
+                read();
+                readTagName();
+                skipTag();
+                break;
+            }
+            content.append((char) c);
+        }
+        return content.toString();
+    }
+
+    /**
+     * Skips the content of a raw text element which is not part of the text, without keeping it.
+     */
+    private void skipRawText(String name) throws IOException {
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == '<' && peek(0) == '/' && matchesIgnoreCase(1, name)) {
+                read();
+                readTagName();
+                skipTag();
+                return;
+            }
+        }
+    }
+
+    private String readTagName() throws IOException {
+        StringBuilder name = new StringBuilder();
+        int c;
+        while ((c = peek(0)) >= 0 && !isWhitespace(c) && c != '>' && c != '/') {
+            name.append(Character.toLowerCase((char) read()));
+        }
+        return name.toString();
+    }
+
+    /**
+     * Skips the attributes of a tag up to and including the closing '>', respecting quoted attribute values.
+     */
+    private void skipTag() throws IOException {
+        int c;
+        int quote = 0;
+        while ((c = read()) >= 0) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return;
+            }
+        }
+    }
+
+    private void skipPast(String end) throws IOException {
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == end.charAt(0) && matchesIgnoreCase(0, end.substring(1))) {
+                for (int i=1; i<end.length(); i++) {
+                    read();
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean matchesIgnoreCase(int offset, String s) throws IOException {
+        for (int i=0; i<s.length(); i++) {
+            int c = peek(offset + i);
+            if (c < 0 || Character.toLowerCase((char) c) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isMarkup(int c) {
+        return c == '!' || c == '/' || c == '?' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+    }
+
+    private int read() throws IOException {
+        if (pos >= limit && !fill(1)) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    private int peek(int offset) throws IOException {
+        if (pos + offset >= limit && !fill(offset + 1)) {
+            return -1;
+        }
+        return buffer[pos + offset];
+    }
+
+    /**
+     * Makes sure that at least the given number of characters is buffered.
+     */
+    private boolean fill(int needed) throws IOException {
+        if (limit - pos >= needed) {
+            return true;
+        }
+        System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        while (!eof && limit < needed) {
+            int n = in.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                eof = true;
+            } else {
+                limit += n;
+            }
+        }
+        return limit >= needed;
+    }
+}
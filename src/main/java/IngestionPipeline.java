@@ -0,0 +1,304 @@
+import org.apache.commons.io.IOUtils;
+import org.jsoup.Jsoup;
+
+import java.io.*;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multi-threaded pipeline generating unannotated training data from 10-K reports.
+ * Every stage runs on its own threads and hands the reports to the next stage through a bounded queue,
+ * so fetching, HTML extraction, sentence detection, tokenization and writing overlap.
+ * In streaming mode the report is not loaded as a whole: the extract stage reads the HTML from its source and
+ * detects, tokenizes and writes the sentences block by block, which keeps the memory per report bounded.
+ * Optionally only Item 1 of Part I, the region which gets annotated, is kept and the rest of the report is skipped
+ * before the sentence detection.
+ */
+class IngestionPipeline {
+
+    /**
+     * Processing stages in the order a report passes through them.
+     */
+    enum Stage { FETCH, EXTRACT, SPLIT, TOKENIZE, WRITE }
+
+    /**
+     * Report travelling through the pipeline; each stage fills in its own result and drops the previous one.
+     */
+    private static class Report {
+        private final String name;
+        private final String source;
+        private final File output;
+        private byte[] html;
+        private String text;
+        private String[] sentences;
+        private String[][] tokens;
+
+        private Report(String name, String source, File output) {
+            this.name = name;
+            this.source = source;
+            this.output = output;
+        }
+    }
+
+    /** Marks the end of the input of a stage, one per worker */
+    private static final Report END = new Report(null, null, null);
+    /** Size (in characters) of the text blocks in streaming mode */
+    private static final int blockSize = 1 << 16;
+
+    private final int[] parallelism = new int[Stage.values().length];
+    private final int queueCapacity;
+    private final File outputDir;
+    private boolean streaming = false;
+    private boolean partOne = false;
+
+    /**
+     * @param outputDir Directory the tokenized reports are written to
+     * @param queueCapacity Maximum number of reports waiting in front of each stage
+     */
+    public IngestionPipeline(File outputDir, int queueCapacity) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.outputDir = outputDir;
+        this.queueCapacity = queueCapacity;
+        parallelism[Stage.FETCH.ordinal()] = 4;
+        parallelism[Stage.EXTRACT.ordinal()] = cores;
+        parallelism[Stage.SPLIT.ordinal()] = cores;
+        parallelism[Stage.TOKENIZE.ordinal()] = cores;
+        parallelism[Stage.WRITE.ordinal()] = 1;
+    }
+
+    /**
+     * Sets the number of threads working on a stage.
+     * @param stage Pipeline stage
+     * @param threads Number of threads
+     */
+    public void setParallelism(Stage stage, int threads) {
+        parallelism[stage.ordinal()] = Math.max(1, threads);
+    }
+
+    /**
+     * Enables the streaming mode, which only uses the extract stage.
+     * @param streaming True = extract, split, tokenize and write block by block
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Restricts the output to Item 1 of Part I ("Item 1. Business" up to "Item 1A" or "Item 2").
+     * Reports without the heading are written empty.
+     * @param partOne True = skip everything outside of Item 1
+     */
+    public void setPartOne(boolean partOne) {
+        this.partOne = partOne;
+    }
+
+    /**
+     * Reads the report list, one report per line in the form "Company -> URL".
+     * @param reportList File listing the reports
+     * @return Report sources mapped by report name
+     * @throws IOException
+     */
+    public static Map<String, String> readReportList(File reportList) throws IOException {
+        Map<String, String> reports = new LinkedHashMap<>();
+        String[] split;
+        String line;
+
+        try (BufferedReader br = new BufferedReader(new FileReader(reportList))) {
+            while ((line = br.readLine()) != null) {
+                split = line.split(" -> ");
+                reports.put(split[0], split[1]);
+            }
+        }
+        return reports;
+    }
+
+    /**
+     * Lists the saved reports (*.htm, *.html) of a local directory, so that no network access is needed.
+     * @param dir Directory with the saved reports
+     * @return Report sources mapped by report name (file name without extension)
+     * @throws IOException
+     */
+    public static Map<String, String> readReportDirectory(File dir) throws IOException {
+        Map<String, String> reports = new LinkedHashMap<>();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".htm") || name.endsWith(".html"));
+
+        if (files == null) {
+            throw new FileNotFoundException(dir.getPath());
+        }
+        for (File f : files) {
+            reports.put(f.getName().substring(0, f.getName().lastIndexOf('.')), f.toURI().toURL().toString());
+        }
+        return reports;
+    }
+
+    /**
+     * Runs all reports through the pipeline and returns once every report has been written.
+     * If the calling thread is interrupted, the workers of all stages are interrupted and stop as well.
+     * @param reports Report sources (URLs) mapped by report name
+     * @throws InterruptedException
+     */
+    public void process(Map<String, String> reports) throws InterruptedException {
+        Stage[] stages = streaming ? new Stage[]{Stage.EXTRACT} : Stage.values();
+        List<BlockingQueue<Report>> queues = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        AtomicBoolean stopped = new AtomicBoolean();
+
+        for (Stage ignored : stages) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+
+        for (int s=0; s<stages.length; s++) {
+            Stage stage = stages[s];
+            BlockingQueue<Report> in = queues.get(s);
+            BlockingQueue<Report> out = s + 1 < stages.length ? queues.get(s + 1) : null;
+            int next = s + 1 < stages.length ? parallelism[stages[s + 1].ordinal()] : 0;
+            AtomicInteger running = new AtomicInteger(parallelism[stage.ordinal()]);
+
+            for (int i=0; i<parallelism[stage.ordinal()]; i++) {
+                Thread thread = new Thread(() -> work(stage, in, out, next, running, stopped), "ingest-" + stage.name().toLowerCase() + "-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+
+        BlockingQueue<Report> first = queues.get(0);
+        try {
+            for (Map.Entry<String, String> report : reports.entrySet()) {
+                first.put(new Report(report.getKey(), report.getValue(), new File(outputDir, report.getKey() + ".txt")));
+            }
+            for (int i=0; i<parallelism[stages[0].ordinal()]; i++) {
+                first.put(END);
+            }
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            // the workers are no daemons, left alone they would keep the JVM running
+            stopped.set(true);
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Worker loop of a stage. The last worker of a stage to finish passes the end marker on to every worker of the next stage,
+     * also if it was interrupted, so that the next stage does not wait forever (unless the whole pipeline is stopped).
+     */
+    private void work(Stage stage, BlockingQueue<Report> in, BlockingQueue<Report> out, int next, AtomicInteger running,
+                      AtomicBoolean stopped) {
+        try {
+            Report report;
+            while ((report = in.take()) != END) {
+                try {
+                    run(stage, report);
+                    if (out != null) {
+                        out.put(report);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("Failed to process " + report.name + " (" + stage.name().toLowerCase() + ")");
+                    e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (running.decrementAndGet() == 0 && out != null && !stopped.get()) {
+                passEnd(out, next);
+            }
+        }
+    }
+
+    /**
+     * Puts the end marker for every worker of the next stage, which keeps consuming, even if this thread was interrupted.
+     */
+    private static void passEnd(BlockingQueue<Report> out, int workers) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            for (int i=0; i<workers; i++) {
+                out.put(END);
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Performs the work of one stage on a report.
+     */
+    private void run(Stage stage, Report report) throws IOException {
+        Metrics.Sample timer = Metrics.timer("ingest." + stage.name().toLowerCase()).start();
+        try {
+            runTimed(stage, report);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private void runTimed(Stage stage, Report report) throws IOException {
+        switch (stage) {
+            case FETCH:
+                System.out.println("Processing " + report.source);
+                try (InputStream in = new URL(report.source).openStream()) {
+                    report.html = IOUtils.toByteArray(in);
+                }
+                Metrics.counter("ingest.fetch.bytes").add(report.html.length);
+                break;
+            case EXTRACT:
+                if (streaming) {
+                    System.out.println("Processing " + report.source);
+                    try (Reader in = new InputStreamReader(new URL(report.source).openStream(), "UTF-8")) {
+                        TextSource text = new HtmlTextExtractor(in, blockSize);
+                        PartOneSlicer slicer = null;
+                        if (partOne) {
+                            text = slicer = new PartOneSlicer(text);
+                        }
+                        Preprocessor.getInstance().generateTokenizedReport(text, report.output);
+                        if (slicer != null && !slicer.isFound()) {
+                            System.out.println("Item 1 not found in " + report.name);
+                        }
+                    }
+                    System.out.println("Written " + report.output.getPath());
+                    Metrics.counter("ingest.extract.reports").add(1);
+                    break;
+                }
+                report.text = Jsoup.parse(new ByteArrayInputStream(report.html), "UTF-8", report.source).body().text();
+                report.html = null;
+                if (partOne) {
+                    String section = PartOneSlicer.slice(report.text);
+                    if (section == null) {
+                        System.out.println("Item 1 not found in " + report.name);
+                    }
+                    report.text = section == null ? "" : section;
+                }
+                break;
+            case SPLIT:
+                report.sentences = Preprocessor.getInstance().detectSentences(report.text);
+                report.text = null;
+                break;
+            case TOKENIZE:
+                report.tokens = Preprocessor.getInstance().tokenize(report.sentences);
+                report.sentences = null;
+                break;
+            case WRITE:
+                Preprocessor.writeTokenizedReport(report.tokens, report.output);
+                Metrics.counter("ingest.write.reports").add(1);
+                report.tokens = null;
+                System.out.println("Written " + report.output.getPath());
+                break;
+        }
+    }
+}
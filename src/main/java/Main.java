@@ -1,66 +1,156 @@
+import opennlp.tools.namefind.TokenNameFinderModel;
 import opennlp.tools.util.eval.FMeasure;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 
 import java.io.*;
-import java.net.URL;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Main class for parsing the report and initializing the NLP pipeline
  * @author Maxim Serebrianski
  */
 class Main {
-    private static int foldCounter = 1;
     private static final FileFilter directoryFilter = File::isDirectory;
+    /** Number of folds trained or files converted at the same time, set with -Dnlp.threads=n (default: number of cores) */
+    private static int threads = Integer.getInteger("nlp.threads", Runtime.getRuntime().availableProcessors());
+    /** Heap (in MB) one Stanford CRF fold needs for training, set with -Dnlp.crf.foldHeap=n (default: 1024) */
+    private static long foldHeap = Long.getLong("nlp.crf.foldHeap", 1024);
+    /** Models shared by the steps of a run */
+    private static ModelRegistry registry;
 
     /**
-     * Main point of entry for the application. Choose and enter the appropriate number for processing.
-     * @param args
+     * Main point of entry for the application. Without arguments, choose and enter the appropriate number for
+     * processing. With arguments, the steps given on the command line or in a plan file are run one after another
+     * without asking (see {@link RunPlan}), e.g. "java Main 2 4 5" or "java Main --plan plan.txt [--force]".
+     * @param args Steps of the plan, none for the menu
      * @throws IOException
      */
-    @SuppressWarnings("JavaDoc")
     public static void main(String[] args) throws IOException {
-        Scanner sc = new Scanner(System.in);
-        File dir = new File("src/main/resources/training/conll");
-        FileFilter fileFilter = new WildcardFileFilter("*.conll");
-        File path;
-        File[] dirs;
+        try {
+            if (args.length > 0) {
+                runPlan(RunPlan.parse(args));
+            } else {
+                printMenu();
+                Scanner sc = new Scanner(System.in);
+                run(sc.nextLine(), new File("src/main/resources/training/conll"), sc);
+            }
+        } finally {
+            Metrics.report();
+        }
+    }
 
+    /**
+     * Runs the steps of a plan in order. A step which is up to date is skipped unless the plan is forced; the settings
+     * of a step apply only while it runs.
+     * @param plan Plan
+     * @throws IOException
+     */
+    private static void runPlan(RunPlan plan) throws IOException {
+        for (RunPlan.Step step : plan.getSteps()) {
+            System.out.println("==========================================================================");
+            System.out.println("Step " + step);
+            // the settings apply to the check as well, e.g. the number of folds
+            Map<String, String> previous = step.apply();
+            configure();
+            try {
+                if (!plan.isForce() && RunPlan.isUpToDate(step)) {
+                    System.out.println("Up to date, skipped.");
+                    continue;
+                }
+                Metrics.Sample timer = Metrics.timer("step." + step.choice).start();
+                try {
+                    run(step.choice, step.input(), null);
+                } finally {
+                    timer.stop();
+                }
+            } finally {
+                RunPlan.Step.restore(previous);
+                configure();
+            }
+            if (registry != null && step.trainsModels()) {
+                // later steps must not be served the models this step replaced
+                registry.clear();
+            }
+        }
+    }
+
+    /**
+     * Reads the settings of the steps from the system properties.
+     */
+    private static void configure() {
+        threads = Integer.getInteger("nlp.threads", Runtime.getRuntime().availableProcessors());
+        foldHeap = Long.getLong("nlp.crf.foldHeap", 1024);
+    }
+
+    private static void printMenu() {
+        System.out.println("Enter '0' to generate all annotated training data (also as binary corpus) and statistics from exported WebAnno files in one pass.");
         System.out.println("Enter '1' to generate unannotated training data from 10-K reports.");
-        System.out.println("Enter '2' to generate annotated training data for OpenNLP from exported WebAnno files.");
+        System.out.println("Enter '1-2' to generate unannotated training data from saved 10-K reports (training/html).");
+        System.out.println("Enter '2' to generate annotated training data for OpenNLP from new or changed exported WebAnno files.");
         System.out.println("Enter '3-1' to generate statistics from exported WebAnno files (all documents).");
         System.out.println("Enter '3-2' to generate statistics from exported WebAnno files (per domain).");
-        System.out.println("Enter '4' to copy annotation files into stratified folds (for OpenNLP).");
+        System.out.println("Enter '4' to plan stratified folds of the annotation files (for OpenNLP).");
         System.out.println("Enter '5' to evaluate OpenNLP model in global setting.");
-        System.out.println("Enter '6' to generate annotated training data for Stanford NLP from exported WebAnno files.");
-        System.out.println("Enter '7' to copy annotation files into stratified folds (for Stanford NLP, full).");
-        System.out.println("Enter '8' to train Stanford NLP classifier for cross-validation (full).");
-        System.out.println("Enter '9' to train Stanford NLP classifier with 50% of training files (full).");
-        System.out.println("Enter '10' to generate annotated training data for Stanford NLP from exported WebAnno files and keep only annotated sentences.");
-        System.out.println("Enter '11' to copy annotation files into stratified folds (for Stanford NLP, annotated only).");
-        System.out.println("Enter '12' to train Stanford NLP classifier for cross-validation (annotated only).");
-        System.out.println("Enter '13' to train Stanford NLP classifier with 50% of training files (annotated only).");
+        System.out.println("Enter '6' to generate annotated training data for Stanford NLP from new or changed exported WebAnno files.");
+        System.out.println("Enter '7' to plan stratified folds of the annotation files (for Stanford NLP, full).");
+        System.out.println("Enter '8' to run Stanford NLP cross-validation with evaluation (full).");
+        System.out.println("Enter '9' to compare the Stanford NLP feature sets on 50% of training files (full).");
+        System.out.println("Enter '10' to generate annotated training data for Stanford NLP from new or changed exported WebAnno files and keep only annotated sentences.");
+        System.out.println("Enter '11' to plan stratified folds of the annotation files (for Stanford NLP, annotated only).");
+        System.out.println("Enter '12' to run Stanford NLP cross-validation with evaluation (annotated only).");
+        System.out.println("Enter '13' to compare the Stanford NLP feature sets on 50% of training files (annotated only).");
         System.out.println("Enter '14' to run domain specific evaluation for OpenNLP.");
         System.out.println("Enter '15' to run domain specific evaluation for Stanford CoreNLP (full).");
         System.out.println("Enter '16' to run domain specific evaluation for Stanford CoreNLP (annotated only).");
+        System.out.println("Enter '17' to start the NER service with the trained models (until Enter is pressed).");
+        System.out.println("Enter '18' to measure the latency of the NER service with a local load generator.");
+        System.out.println("Enter '19' to measure the throughput of batch tagging with 1 up to all threads.");
+        System.out.println("Enter '20' to route the domain files to their Stanford models through the model registry (annotated only).");
         System.out.println("--------------------------------------------------------------------------");
+    }
+
+    /**
+     * Runs one step.
+     * @param choice Choice of the menu
+     * @param dir Directory of the exported WebAnno files
+     * @param sc Console for the steps which wait for Enter, null = wait until the process is stopped
+     * @throws IOException
+     */
+    private static void run(String choice, File dir, Scanner sc) throws IOException {
+        FileFilter fileFilter = new WildcardFileFilter("*.conll");
+        File path;
+        File[] dirs;
+
+        switch (choice) {
+            case "0":   // annotated training data for OpenNLP and Stanford NLP (full, annotated only) with statistics
+                System.out.println("--------------------------------------------------------------------------");
+                WebAnno.Statistics statistics = WebAnno.convertAll(dir.listFiles(fileFilter), threads);
+                System.out.println("--------------------------------------------------------------------------");
+                System.out.println("All Documents");
+                System.out.println();
+                statistics.print();
+                System.out.println("Done!");
+                break;
 
-        switch (sc.nextLine()) {
             case "1":   // unannotated training data from 10-K reports
                 System.out.println("--------------------------------------------------------------------------");
-                processReports();
+                processReports(IngestionPipeline.readReportList(new File("src/main/resources/training/reports.txt")));
+                System.out.println("Done!");
+                break;
+
+            case "1-2":   // unannotated training data from locally saved 10-K reports
+                System.out.println("--------------------------------------------------------------------------");
+                processReports(IngestionPipeline.readReportDirectory(new File("src/main/resources/training/html")));
                 System.out.println("Done!");
                 break;
 
             case "2":   // annotated training data for OpenNLP
                 System.out.println("--------------------------------------------------------------------------");
-                File[] f1 = dir.listFiles(fileFilter);
-                for (File f : f1) {
-                    WebAnno.genOpenNlp(f);
-                }
+                WebAnno.convertChanged(dir.listFiles(fileFilter), WebAnno.Format.OPENNLP, threads);
                 System.out.println("Done!");
                 break;
 
@@ -69,26 +159,26 @@ class Main {
                 File[] f3 = dir.listFiles(fileFilter);
                 System.out.println("All Documents");
                 System.out.println();
-                WebAnno.runStatistics(f3);
+                WebAnno.runStatistics(f3, threads);
                 System.out.println("Done!");
                 break;
 
             case "3-2": // statistics on exported WebAnno files (per domain)
                 System.out.println("--------------------------------------------------------------------------");
-                path = new File("src/main/resources/training/conll/domains");
+                path = new File(dir, "domains");
                 dirs = path.listFiles(directoryFilter);
 
                 for (File folder : dirs) {
                     System.out.println(folder.getName());
                     System.out.println();
-                    WebAnno.runStatistics(folder.listFiles());
+                    WebAnno.runStatistics(folder.listFiles(), threads);
                 }
                 System.out.println("Done!");
                 break;
 
             case "4":   // generate folds for OpenNLP
                 System.out.println("--------------------------------------------------------------------------");
-                System.out.println("Copying files to folds...");
+                System.out.println("Planning folds...");
                 createFolds(true, false);
                 System.out.println("Done!");
                 break;
@@ -99,17 +189,13 @@ class Main {
 
             case "6":   // generate training data for Stanford NLP (full)
                 System.out.println("--------------------------------------------------------------------------");
-                File[] f4 = dir.listFiles(fileFilter);
-
-                for (File f : f4) {
-                    WebAnno.genStanfordNlp(f);
-                }
+                WebAnno.convertChanged(dir.listFiles(fileFilter), WebAnno.Format.STANFORD_FULL, threads);
                 System.out.println("Done!");
                 break;
 
             case "7":   // generate folds for Stanford NLP (full)
                 System.out.println("--------------------------------------------------------------------------");
-                System.out.println("Copying files to folds...");
+                System.out.println("Planning folds...");
                 createFolds(false, false);
                 System.out.println("Done!");
                 break;
@@ -118,23 +204,19 @@ class Main {
                 evaluateCrossSnlp(false);
                 break;
 
-            case "9":  // train Stanford classifier with different feature sets on 50% data, test on 20% (full)
+            case "9":  // sweep the Stanford feature sets on 50% data, test on 20% (full)
                 evaluateSnlpFeatureSets(false);
                 break;
 
             case "10":  //Generate Stanford NLP training data (annotated only)
                 System.out.println("--------------------------------------------------------------------------");
-                File[] f5 = dir.listFiles(fileFilter);
-
-                for (File f : f5) {
-                    WebAnno.genStanNlpAnnoOnly(f);
-                }
+                WebAnno.convertChanged(dir.listFiles(fileFilter), WebAnno.Format.STANFORD_ANNO, threads);
                 System.out.println("Done!");
                 break;
 
             case "11":   // generate folds for Stanford NLP (annotated only)
                 System.out.println("--------------------------------------------------------------------------");
-                System.out.println("Copying files to folds...");
+                System.out.println("Planning folds...");
                 createFolds(false, true);
                 System.out.println("Done!");
                 break;
@@ -143,7 +225,7 @@ class Main {
                 evaluateCrossSnlp(true);
                 break;
 
-            case "13":  // train Stanford classifier with different feature sets on 50% data, test on 20% (annotated only)
+            case "13":  // sweep the Stanford feature sets on 50% data, test on 20% (annotated only)
                 evaluateSnlpFeatureSets(true);
                 break;
 
@@ -158,6 +240,35 @@ class Main {
             case "16":  // domain specific evaluation (Stanford NLP, annotations only)
                 evaluateDomainSnlp(true);
                 break;
+
+            case "17":  // NER service on localhost
+                NerService service = startNerService(Integer.getInteger("nlp.serve.port", 8080));
+                if (sc != null) {
+                    System.out.println("Press Enter to stop the service.");
+                    sc.nextLine();
+                    service.stop();
+                } else {
+                    System.out.println("Serving until the process is stopped.");
+                    Runtime.getRuntime().addShutdownHook(new Thread(service::stop));
+                    try {
+                        Thread.currentThread().join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                break;
+
+            case "18":  // latency of the NER service
+                loadTestNerService();
+                break;
+
+            case "19":  // throughput of batch tagging
+                benchmarkBatchTagging();
+                break;
+
+            case "20":  // per-domain models from the model registry
+                routeDomainFiles();
+                break;
         }
     }
 
@@ -166,34 +277,21 @@ class Main {
         File path = new File("src/main/resources/training/onlp/domain");
         File[] domains = path.listFiles(directoryFilter);
         File[][] files = new File[5][];
-        ArrayList<FMeasure> measures;
-        ArrayList<File> trainFiles;
+        List<FMeasure> measures;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
 
         for (File domain : domains) {
             int i = 0;
             Double pre = 0.0;
             Double rec = 0.0;
             Double fm = 0.0;
-            measures = new ArrayList<>();
             System.out.println("--------------------------------------------------------------------------");
-            for (File fold : domain.listFiles(directoryFilter)) {
+            for (File fold : sortedFolds(domain)) {
                 files[i] = fold.listFiles();
                 i++;
             }
-            for (int j=0; j<5; j++) {
-                trainFiles = new ArrayList<>();
-                for (File[] f : files) {
-                    if (!Arrays.equals(f, files[j])){
-                        Collections.addAll(trainFiles, f);
-                    }
-                }
-                try {
-                    Collections.addAll(measures, OpenNLP.evaluate(files[j], trainFiles.toArray(new File[trainFiles.size()]), j, false));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                System.out.println();
-            }
+            measures = OpenNLP.crossValidate(files, 0, domain.getName(), executor);
+            System.out.println();
 
             for (FMeasure m : measures) {
                 if (m.getPrecisionScore() > 0.0 && m.getRecallScore() > 0.0 && m.getFMeasure() > 0.0) {
@@ -210,109 +308,362 @@ class Main {
             System.out.println("Average F1: " + fm/measures.size());
             System.out.println("--------------------------------------------------------------------------");
         }
+        executor.shutdown();
     }
 
     private static void evaluateDomainSnlp(boolean annoOnly) {
         System.out.println("--------------------------------------------------------------------------");
         File path;
+        File modelDir;
         if (annoOnly) {
             path = new File("src/main/resources/training/snlp/domain/anno");
+            modelDir = new File("src/main/resources/models/snlp/cross/domain/anno");
         } else {
             path = new File("src/main/resources/training/snlp/domain/full");
+            modelDir = new File("src/main/resources/models/snlp/cross/domain/full");
         }
         File[] domains = path.listFiles(directoryFilter);
         File[][] files = new File[5][];
-        StringBuilder fileList = new StringBuilder();
-        Properties props;
+        int parallelism = snlpParallelism();
+        CrfTrainingProfile profile = snlpProfile(parallelism);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
 
-        for (File domain : domains) {
-            int i = 0;
-            System.out.println("--------------------------------------------------------------------------");
-            for (File fold : domain.listFiles(directoryFilter)) {
-                files[i] = fold.listFiles();
-                i++;
+        try {
+            for (File domain : domains) {
+                int i = 0;
+                System.out.println("--------------------------------------------------------------------------");
+                for (File fold : sortedFolds(domain)) {
+                    files[i] = fold.listFiles();
+                    i++;
+                }
+
+                StanfordNLP.Evaluation total = total(StanfordNLP.crossValidate(files, 10, profile, new File(modelDir, domain.getName()), executor));
+
+                System.out.println("--------------------------------------------------------------------------");
+                System.out.println(domain.getName());
+                System.out.println();
+                total.print();
+                System.out.println("--------------------------------------------------------------------------");
             }
+        } finally {
+            executor.shutdown();
+        }
+        System.out.println("Done!");
+    }
 
-            for (int j=0; j<5; j++) {
-                fileList.setLength(0);
-                for (File[] f : files) {
-                    if (!Arrays.equals(f, files[j])) {
-                        for (File file : f) {
-                            fileList.append(file.getPath()).append(",");
-                        }
-                    }
-                }
-                fileList.deleteCharAt(fileList.length() - 1);
+    /**
+     * Returns the model registry shared by all steps of the run, created on first use with the limits from
+     * {@link ModelRegistry#fromSystemProperties(File)}.
+     * @return Model registry
+     */
+    private static ModelRegistry registry() {
+        if (registry == null) {
+            registry = ModelRegistry.fromSystemProperties(new File("src/main/resources/models"));
+        }
+        return registry;
+    }
+
+    /**
+     * Loads the trained models into a new NER service and starts it. -Dnlp.serve.models=name,... (names as listed by
+     * the service, e.g. onlp/custom/global-1) restricts the models loaded, by default all models are loaded.
+     * Models requested by key are loaded by a model registry (see {@link ModelRegistry#fromSystemProperties(File)}).
+     * The service handles -Dnlp.threads requests at the same time.
+     * @param port Port on localhost, 0 = any free port
+     * @return Running service
+     * @throws IOException
+     */
+    private static NerService startNerService(int port) throws IOException {
+        System.out.println("--------------------------------------------------------------------------");
+        NerService service = new NerService(threads);
+        service.setRegistry(registry());
+        for (Map.Entry<String, File> model : selectedModels(new File("src/main/resources/models")).entrySet()) {
+            service.load(model.getKey(), model.getValue());
+        }
+        service.start(port);
+        return service;
+    }
 
-                props = StanfordNLP.setProperties(fileList.toString(), 10);
+    /**
+     * Finds the trained models, restricted to -Dnlp.serve.models=name,... if set.
+     * @param modelDir Model directory
+     * @return Model files by name (see {@link NerService#modelName(File, File)})
+     */
+    private static Map<String, File> selectedModels(File modelDir) {
+        String selection = System.getProperty("nlp.serve.models");
+        Set<String> selected = selection == null ? null : new HashSet<>(Arrays.asList(selection.split(",")));
+        Map<String, File> models = new TreeMap<>();
+        for (File model : NerService.findModels(modelDir)) {
+            String name = NerService.modelName(modelDir, model);
+            if (selected == null || selected.contains(name)) {
+                models.put(name, model);
+            }
+        }
+        return models;
+    }
 
-                StanfordNLP.trainClassifier(props, 10, j, true, annoOnly, true, domain.getName());
+    /**
+     * Starts the NER service and sends it the sentences of the Stanford training files (annotated only) as load, one
+     * sentence (up to a blank line or a full stop) per request, for every loaded model. Set the load with -Dnlp.serve.clients=n (clients sending at the
+     * same time, default: -Dnlp.threads) and -Dnlp.serve.requests=n (requests per client, default: 1000).
+     * @throws IOException
+     */
+    private static void loadTestNerService() throws IOException {
+        List<String> sentences = new ArrayList<>();
+        for (String[] tokens : trainingSentences()) {
+            sentences.add(String.join(" ", tokens));
+        }
 
-                fileList.setLength(0);
+        NerService service = startNerService(0);
+        try {
+            for (String model : service.models()) {
+                NerService.loadTest(service.getPort(), model, sentences, Integer.getInteger("nlp.serve.clients", threads),
+                        Integer.getInteger("nlp.serve.requests", 1000));
+            }
+        } finally {
+            service.stop();
+        }
+        System.out.println("--------------------------------------------------------------------------");
+        System.out.println("Done!");
+    }
 
-                if (annoOnly) {
-                    path = new File("D:/java/stanford-ner/testfiles/cross/domain/anno/" + domain.getName() + "/" + j);
-                } else {
-                    path = new File("D:/java/stanford-ner/testfiles/cross/domain/full/" + domain.getName() + "/" + j);
+    /**
+     * Reads the sentences of the Stanford training files (annotated only, from the domain directories of
+     * snlp/anno/annotated) as test load. A sentence ends at a blank line or a full stop.
+     * @return Tokens of each sentence
+     * @throws IOException If there are no training sentences
+     */
+    private static List<String[]> trainingSentences() throws IOException {
+        File annotations = new File("src/main/resources/training/snlp/anno/annotated");
+        List<String[]> sentences = new ArrayList<>();
+        File[] domains = annotations.listFiles(directoryFilter);
+        if (domains != null) {
+            Arrays.sort(domains);
+            for (File domain : domains) {
+                File[] files = domain.listFiles(File::isFile);
+                Arrays.sort(files);
+                for (File file : files) {
+                    sentences.addAll(sentences(file));
+                }
+            }
+        }
+        if (sentences.isEmpty()) {
+            throw new IOException("No training sentences as test load in " + annotations.getPath() + "/<domain> (files of option 10, sorted by domain)");
+        }
+        return sentences;
+    }
+
+    /**
+     * Reads the sentences of a Stanford training file. A sentence ends at a blank line or a full stop.
+     * @param file Training file (tab-separated)
+     * @return Tokens of each sentence
+     * @throws IOException
+     */
+    private static List<String[]> sentences(File file) throws IOException {
+        List<String[]> sentences = new ArrayList<>();
+        List<String> sentence = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath())) {
+            if (!line.trim().isEmpty()) {
+                sentence.add(line.split("\t")[0]);
+            }
+            if (!sentence.isEmpty() && (line.trim().isEmpty() || sentence.get(sentence.size() - 1).equals("."))) {
+                sentences.add(sentence.toArray(new String[sentence.size()]));
+                sentence.clear();
+            }
+        }
+        if (!sentence.isEmpty()) {
+            sentences.add(sentence.toArray(new String[sentence.size()]));
+        }
+        return sentences;
+    }
+
+    /**
+     * Measures the throughput of the batch taggers (see {@link BatchTagger}) for 1, 2, 4, ... up to -Dnlp.threads
+     * worker threads, once tagging every sentence on its own (batch size 1) and once in micro-batches.
+     * The models are chosen like for the NER service (-Dnlp.serve.models). Set the batches with -Dnlp.batch.size=n
+     * (default: 64) and -Dnlp.batch.delay=ms (default: 5), the load with -Dnlp.batch.sentences=n (default: 20000).
+     * @throws IOException
+     */
+    private static void benchmarkBatchTagging() throws IOException {
+        System.out.println("--------------------------------------------------------------------------");
+        File modelDir = new File("src/main/resources/models");
+        int batchSize = Integer.getInteger("nlp.batch.size", 64);
+        long batchDelay = Long.getLong("nlp.batch.delay", 5);
+        List<String[]> corpus = trainingSentences();
+        List<String[]> sentences = new ArrayList<>();
+        for (int i=0; i<Integer.getInteger("nlp.batch.sentences", 20000); i++) {
+            sentences.add(corpus.get(i % corpus.size()));
+        }
+
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int t=1; t<threads; t *= 2) {
+            threadCounts.add(t);
+        }
+        threadCounts.add(threads);
+
+        for (Map.Entry<String, File> entry : selectedModels(modelDir).entrySet()) {
+            String name = entry.getKey();
+            File model = entry.getValue();
+            TokenNameFinderModel nameFinderModel = null;
+            SharedCRFClassifier classifier = null;
+            if (model.getName().endsWith(".ser.gz")) {
+                classifier = SharedCRFClassifier.load(model);
+            } else {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(model))) {
+                    nameFinderModel = new TokenNameFinderModel(in);
                 }
-                File[] testfiles = path.listFiles();
-
-                if (testfiles != null) {
-                    for (File f : testfiles) {
-                        if (annoOnly) {
-                            fileList.append("testfiles/cross/domain/anno/").append(domain.getName()).append("/").append(j).append("/").append(f.getName()).append(",");
-                        } else {
-                            fileList.append("testfiles/cross/domain/full/").append(domain.getName()).append("/").append(j).append("/").append(f.getName()).append(",");
+            }
+
+            System.out.println("--------------------------------------------------------------------------");
+            System.out.println(name + ": " + sentences.size() + " sentences");
+            System.out.println(String.format("%-8s %6s %14s %10s %8s", "Threads", "Batch", "Sentences/s", "Avg. batch", "Speedup"));
+            double base = 0.0;
+            boolean warmedUp = false;
+            for (int t : threadCounts) {
+                for (int size : new int[]{1, batchSize}) {
+                    try (BatchTagger tagger = classifier != null ? StanfordNLP.batchTagger(classifier, t, size, batchDelay)
+                            : OpenNLP.batchTagger(nameFinderModel, t, size, batchDelay)) {
+                        if (!warmedUp) {
+                            tagger.tagAll(sentences);
+                            warmedUp = true;
+                        }
+                        long start = System.nanoTime();
+                        tagger.tagAll(sentences);
+                        double rate = sentences.size() / ((System.nanoTime() - start) / 1e9);
+                        if (base == 0.0) {
+                            base = rate;
                         }
+                        System.out.println(String.format("%-8d %6d %14.0f %10.1f %7.2fx", t, size, rate,
+                                tagger.getAverageBatchSize(), rate / base));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (ExecutionException e) {
+                        e.getCause().printStackTrace();
                     }
                 }
-                fileList.deleteCharAt(fileList.length() - 1);
+            }
+        }
+        System.out.println("--------------------------------------------------------------------------");
+        System.out.println("Done!");
+    }
 
-                if (annoOnly) {
-                    StanfordNLP.createEvalScript(fileList.toString(), "classifiers/cross/domain/anno/" + domain.getName() + "/" + j + "-eval.ser.gz", domain.getName());
-                } else {
-                    StanfordNLP.createEvalScript(fileList.toString(), "classifiers/cross/domain/full/" + domain.getName() + "/" + j + "-eval.ser.gz", domain.getName());
+    /**
+     * Tags the files of the domain evaluation (Stanford, annotated only) in random order, as filings of mixed sectors
+     * arrive, each with the classifier of its domain and fold taken from the model registry, and prints how often a
+     * model had to be loaded. Set the limits with -Dnlp.registry.maxModels and -Dnlp.registry.maxHeap.
+     * @throws IOException
+     */
+    private static void routeDomainFiles() throws IOException {
+        System.out.println("--------------------------------------------------------------------------");
+        ModelRegistry registry = registry();
+        List<ModelRegistry.Key> keys = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        for (File domain : new File("src/main/resources/training/snlp/domain/anno").listFiles(directoryFilter)) {
+            File[] folds = sortedFolds(domain);
+            for (int j=0; j<folds.length; j++) {
+                for (File file : folds[j].listFiles()) {
+                    keys.add(ModelRegistry.Key.stanford(true, domain.getName(), ModelRegistry.Key.crossValidationFeatureSet, j));
+                    files.add(file);
                 }
-                System.out.println("--------------------------------------------------------------------------");
             }
-            System.out.println("Done!");
         }
+        List<Integer> order = new ArrayList<>();
+        for (int i=0; i<files.size(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(0));
+
+        long start = System.nanoTime();
+        int sentences = 0;
+        for (int i : order) {
+            SharedCRFClassifier classifier = registry.getStanford(keys.get(i));
+            for (String[] tokens : sentences(files.get(i))) {
+                classifier.tag(tokens);
+                sentences++;
+            }
+        }
+        System.out.println(files.size() + " files, " + sentences + " sentences in " + (System.nanoTime() - start) / 1000000 + " ms");
+        registry.print();
+        System.out.println("--------------------------------------------------------------------------");
+        System.out.println("Done!");
     }
 
     /**
-     * Evaluates the OpenNLP classifier via 10-fold cross-validation after generating a model
+     * @param evaluations Evaluations of the folds
+     * @return Evaluation over all folds
      */
-    private static void evaluateCrossOpenNlp() {
-        System.out.println("--------------------------------------------------------------------------");
-        File path = new File("src/main/resources/training/onlp/folds");
+    private static StanfordNLP.Evaluation total(List<StanfordNLP.Evaluation> evaluations) {
+        StanfordNLP.Evaluation total = new StanfordNLP.Evaluation();
+        for (StanfordNLP.Evaluation e : evaluations) {
+            total.add(e);
+        }
+        return total;
+    }
+
+    /**
+     * Lists the fold directories in order of their names, so that model j is evaluated on fold directory j.
+     * @param path Directory of the folds
+     * @return Fold directories
+     */
+    private static File[] sortedFolds(File path) {
         File[] dirs = path.listFiles(directoryFilter);
-        File[][] files = new File[10][];
-        ArrayList<FMeasure> measures = new ArrayList<>();
-        int i = 0;
-        ArrayList<File> trainFiles;
+        Arrays.sort(dirs);
+        return dirs;
+    }
+
+    /**
+     * Reads the folds planned by {@link #createFolds(boolean, boolean)} from the manifest, so that model j is
+     * evaluated on fold j.
+     * @param path Training data directory with the annotated files (annotated) and the manifest (folds)
+     * @return Annotated files of each fold
+     * @throws IOException If the folds were not planned yet
+     */
+    private static File[][] folds(File path) throws IOException {
+        FoldPlanner plan = FoldPlanner.load(new File(path, "folds"));
+        System.out.println("Cross-validation with " + plan.getFolds() + " folds");
+        return plan.files(new File(path, "annotated"));
+    }
+
+    /**
+     * Number of Stanford CRF folds trained at the same time: -Dnlp.threads, but no more folds than fit into the heap
+     * with -Dnlp.crf.foldHeap MB each.
+     * @return Number of folds trained in parallel
+     */
+    private static int snlpParallelism() {
+        long byHeap = Runtime.getRuntime().maxMemory() / (foldHeap * 1024 * 1024);
+        int parallelism = (int) Math.max(1, Math.min(threads, byHeap));
+        System.out.println("Training " + parallelism + " fold(s) in parallel");
+        return parallelism;
+    }
+
+    /**
+     * Training profile of the Stanford CRF (see {@link CrfTrainingProfile#fromSystemProperties(int)}). By default the
+     * threads are shared among the folds trained in parallel.
+     * @param parallelism Number of folds trained in parallel
+     * @return Training profile
+     */
+    private static CrfTrainingProfile snlpProfile(int parallelism) {
+        CrfTrainingProfile profile = CrfTrainingProfile.fromSystemProperties(Math.max(1, threads / parallelism));
+        System.out.println("Training profile: " + profile);
+        return profile;
+    }
+
+    /**
+     * Evaluates the OpenNLP classifier via k-fold cross-validation (folds from the manifest) after generating a model
+     * @throws IOException If there are no folds
+     */
+    private static void evaluateCrossOpenNlp() throws IOException {
+        System.out.println("--------------------------------------------------------------------------");
+        File[][] files = folds(new File("src/main/resources/training/onlp"));
+        List<FMeasure> measures;
         Double pre = 0.0;
         Double rec = 0.0;
         Double fm = 0.0;
 
-        for (File folder : dirs) {
-            files[i] = folder.listFiles();
-            i++;
-        }
-
-        for (int j=0; j<10; j++) {
-            trainFiles = new ArrayList<>();
-            for (File[] f : files) {
-                if (!Arrays.equals(f, files[j])){
-                    Collections.addAll(trainFiles, f);
-                }
-            }
-            try {
-                Collections.addAll(measures, OpenNLP.evaluate(files[j], trainFiles.toArray(new File[trainFiles.size()]), j+1, true));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            System.out.println("--------------------------------------------------------------------------");
-        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        measures = OpenNLP.crossValidate(files, 1, null, executor);
+        executor.shutdown();
+        System.out.println("--------------------------------------------------------------------------");
 
         for (FMeasure m : measures) {
             pre += m.getPrecisionScore();
@@ -328,172 +679,134 @@ class Main {
     }
 
     /**
-     * Trains models on several feature sets with 50% of the data
+     * Compares the 14 feature sets by training on 50% of the data (folds 0-4 of 10) and testing on 20% (folds 5-6).
+     * The feature sets are swept by successive halving (see {@link StanfordNLP#sweepFeatureSets}), starting with
+     * -Dnlp.crf.sweepBudget optimizer iterations (default: 20) and keeping 1/-Dnlp.crf.sweepEta of the candidates
+     * per round (default: 3).
      * @param annoOnly True uses only annotated sentences; false uses full reports
+     * @throws IOException If there are no folds
      */
-    private static void evaluateSnlpFeatureSets(boolean annoOnly) {
+    private static void evaluateSnlpFeatureSets(boolean annoOnly) throws IOException {
         System.out.println("--------------------------------------------------------------------------");
         File path;
+        File modelDir;
         if (annoOnly) {
-            path = new File("src/main/resources/training/snlp/anno/folds");
+            path = new File("src/main/resources/training/snlp/anno");
+            modelDir = new File("src/main/resources/models/snlp/features/anno");
         } else {
-            path = new File("src/main/resources/training/snlp/full/folds");
-        }
-        File[] dirs = path.listFiles(directoryFilter);
-        File[][] files = new File[10][];
-        StringBuilder filesList = new StringBuilder();
-        Properties pr;
-        int i = 0;
-
-        for (File folder : dirs) {
-            files[i] = folder.listFiles();
-            i++;
+            path = new File("src/main/resources/training/snlp/full");
+            modelDir = new File("src/main/resources/models/snlp/features/full");
         }
+        File[][] files = folds(path);
+        List<File> trainFiles = new ArrayList<>();
+        List<File> testFiles = new ArrayList<>();
+        int[] featureSets = new int[14];
 
-        for (int j=0; j<5; j++) {
-            for (File file : files[j]) {
-                filesList.append(file.getPath()).append(",");
-            }
+        for (int j=0; j<files.length / 2; j++) {
+            trainFiles.addAll(Arrays.asList(files[j]));
         }
-        filesList.deleteCharAt(filesList.length()-1);
-
-        for (int k=0; k<14; k++) {
-            pr = StanfordNLP.setProperties(filesList.toString(), k);
-            StanfordNLP.trainClassifier(pr, k, 999, false, annoOnly, false, "");
-            System.out.println("--------------------------------------------------------------------------");
+        for (int j=files.length / 2; j<files.length * 7 / 10; j++) {
+            testFiles.addAll(Arrays.asList(files[j]));
         }
-
-        filesList.setLength(0);
-
-        if (annoOnly) {
-            path = new File("D:/Java/stanford-ner/testfiles/features/anno");
-        } else {
-            path = new File("D:/Java/stanford-ner/testfiles/features/full");
+        for (int k=0; k<featureSets.length; k++) {
+            featureSets[k] = k;
         }
-        File[] testfiles = path.listFiles();
 
-        if (testfiles != null) {
-            for (File f : testfiles) {
-                if (annoOnly){
-                    filesList.append("testfiles/features/anno/").append(f.getName()).append(",");
-                } else {
-                    filesList.append("testfiles/features/full/").append(f.getName()).append(",");
-                }
-            }
+        int parallelism = snlpParallelism();
+        CrfTrainingProfile profile = snlpProfile(parallelism);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            StanfordNLP.sweepFeatureSets(trainFiles.toArray(new File[trainFiles.size()]), testFiles.toArray(new File[testFiles.size()]), featureSets, profile,
+                    Integer.getInteger("nlp.crf.sweepBudget", 20), Integer.getInteger("nlp.crf.sweepEta", 3), modelDir, executor);
+        } finally {
+            executor.shutdown();
         }
-        filesList.deleteCharAt(filesList.length()-1);
-
-        if (annoOnly) {
-            path = new File("D:/Java/stanford-ner/classifiers/features/anno/");
-        } else {
-            path = new File("D:/Java/stanford-ner/classifiers/features/full/");
-        }
-        File[] classifiers = path.listFiles();
-
-        if (classifiers != null) {
-            for (File f : classifiers) {
-                if (annoOnly) {
-                    StanfordNLP.createEvalScript(filesList.toString(), "classifiers/features/anno/" + f.getName(), "");
-                } else {
-                    StanfordNLP.createEvalScript(filesList.toString(), "classifiers/features/full/" + f.getName(), "");
-                }
-            }
-        }
-
+        System.out.println("--------------------------------------------------------------------------");
         System.out.println("Done!");
     }
 
     /**
-     * Trains models for 10-fold cross-validation with feature set 10 (best results)
+     * Runs 10-fold cross-validation with feature set 10 (best results) and evaluates every fold on its own files.
+     * With -Dnlp.crf.warmStart the cross-validation runs twice, without and with warm start, and both are compared.
      * @param annoOnly True uses only annotated sentences; false uses full reports
+     * @throws IOException If there are no folds
      */
-    private static void evaluateCrossSnlp(boolean annoOnly) {
+    private static void evaluateCrossSnlp(boolean annoOnly) throws IOException {
         System.out.println("--------------------------------------------------------------------------");
         File path;
+        File modelDir;
         if (annoOnly) {
-            path = new File("src/main/resources/training/snlp/anno/folds");
+            path = new File("src/main/resources/training/snlp/anno");
+            modelDir = new File("src/main/resources/models/snlp/cross/anno");
         } else {
-            path = new File("src/main/resources/training/snlp/full/folds");
+            path = new File("src/main/resources/training/snlp/full");
+            modelDir = new File("src/main/resources/models/snlp/cross/full");
         }
-        File[] dirs = path.listFiles(directoryFilter);
-        File[][] files = new File[10][];
-        StringBuilder fileList = new StringBuilder();
-        Properties props;
-        int i = 0;
-
-        for (File folder : dirs) {
-            files[i] = folder.listFiles();
-            i++;
-        }
-
-        for (int j=0; j<10; j++) {
-            fileList.setLength(0);
-            for (File[] f : files) {
-                if (!Arrays.equals(f, files[j])) {
-                    for (File file : f) {
-                        fileList.append(file.getPath()).append(",");
-                    }
-                }
-            }
-            fileList.deleteCharAt(fileList.length()-1);
-
-            props = StanfordNLP.setProperties(fileList.toString(), 10);
-
-            StanfordNLP.trainClassifier(props, 10, j, true, annoOnly, false, "");
-
-            fileList.setLength(0);
-
-            if (annoOnly) {
-                path = new File("D:/java/stanford-ner/testfiles/cross/anno/" + j);
-            } else {
-                path = new File("D:/java/stanford-ner/testfiles/cross/full/" + j);
-            }
-            File[] testfiles = path.listFiles();
-
-            if (testfiles != null) {
-                for (File f : testfiles) {
-                    if (annoOnly) {
-                        fileList.append("testfiles/cross/anno/").append(j).append("/").append(f.getName()).append(",");
-                    } else {
-                        fileList.append("testfiles/cross/full/").append(j).append("/").append(f.getName()).append(",");
-                    }
-                }
+        File[][] files = folds(path);
+        StanfordNLP.Evaluation cold = null;
+        StanfordNLP.Evaluation warm;
+
+        int parallelism = snlpParallelism();
+        CrfTrainingProfile profile = snlpProfile(parallelism);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            if (profile.getWarmStart() != CrfTrainingProfile.WarmStart.OFF) {
+                cold = total(StanfordNLP.crossValidate(files, 10, profile.withWarmStart(CrfTrainingProfile.WarmStart.OFF), modelDir, executor));
+                System.out.println("--------------------------------------------------------------------------");
+                System.out.println("All Folds (cold start)");
+                System.out.println();
+                cold.print();
             }
-            fileList.deleteCharAt(fileList.length()-1);
+            warm = total(StanfordNLP.crossValidate(files, 10, profile, modelDir, executor));
+        } finally {
+            executor.shutdown();
+        }
 
-            if (annoOnly) {
-                StanfordNLP.createEvalScript(fileList.toString(), "classifiers/cross/anno/" + j + "-eval.ser.gz", "");
-            } else {
-                StanfordNLP.createEvalScript(fileList.toString(), "classifiers/cross/full/" + j + "-eval.ser.gz", "");
-            }
+        System.out.println("--------------------------------------------------------------------------");
+        System.out.println(cold == null ? "All Folds" : "All Folds (warm start)");
+        System.out.println();
+        warm.print();
+        if (cold != null) {
             System.out.println("--------------------------------------------------------------------------");
+            System.out.println(String.format("%-12s %9s %11s %12s %9s", "", "F1", "Iterations", "Training", "Seeded"));
+            System.out.println(String.format("%-12s %9.4f %11d %10.1f s %8.1f%%", "Cold start", cold.f1(), cold.getIterations(),
+                    cold.getTrainingTime() / 1000.0, cold.seededShare() * 100));
+            System.out.println(String.format("%-12s %9.4f %11d %10.1f s %8.1f%%", "Warm start", warm.f1(), warm.getIterations(),
+                    warm.getTrainingTime() / 1000.0, warm.seededShare() * 100));
         }
+        System.out.println("--------------------------------------------------------------------------");
         System.out.println("Done!");
     }
 
     /**
-     * Reads the reports.txt file and loads the reports from the SEC website.
-     * Uses the OpenNLP sentence detection and tokenizer to process the reports for annotation.
+     * Loads the reports and uses the OpenNLP sentence detection and tokenizer to process the reports for annotation.
+     * Fetching, HTML extraction, sentence detection, tokenization and writing run as parallel pipeline stages.
+     * Set the threads of a stage with -Dnlp.ingest.<stage>=n (fetch, extract, split, tokenize, write).
+     * -Dnlp.ingest.streaming=true processes large reports block by block with bounded memory.
+     * -Dnlp.ingest.part1=true keeps only Item 1 of Part I (the annotated region) and skips the rest of each report.
+     * @param reports Report sources (URLs) mapped by report name
      */
-    private static void processReports() {
-        String[] split;
-        String line;
-
-        try (BufferedReader br = new BufferedReader(new FileReader("src/main/resources/training/reports.txt"))) {
-            while ((line = br.readLine()) != null) {
-                split = line.split(" -> ");
-                System.out.println("Processing " + split[1]);
-                Document document = Jsoup.parse(new URL(split[1]).openStream(), "UTF-8", split[1]);
-                String text = document.body().text();
-                OpenNLP.preProcess(text, new File("src/main/resources/training/" + split[0] + ".txt"));
+    private static void processReports(Map<String, String> reports) {
+        IngestionPipeline pipeline = new IngestionPipeline(new File("src/main/resources/training"), 16);
+        pipeline.setStreaming(Boolean.getBoolean("nlp.ingest.streaming"));
+        pipeline.setPartOne(Boolean.getBoolean("nlp.ingest.part1"));
+        for (IngestionPipeline.Stage stage : IngestionPipeline.Stage.values()) {
+            Integer stageThreads = Integer.getInteger("nlp.ingest." + stage.name().toLowerCase());
+            if (stageThreads != null) {
+                pipeline.setParallelism(stage, stageThreads);
             }
-        } catch (IOException e) {
+        }
+
+        try {
+            pipeline.process(reports);
+        } catch (InterruptedException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Creates folds (as directories) for the cross-validation.
+     * Plans the folds for the cross-validation, stratified by domain and entity types, and records them in the
+     * manifest of the folds directory (see {@link FoldPlanner}); no files are copied.
      * @param onlp True = OpenNLP
      *             False = Stanford NLP
      * @param annoOnly  True = Annotated sentences only
@@ -502,56 +815,21 @@ class Main {
      */
     private static void createFolds(boolean onlp, boolean annoOnly) throws IOException {
         File annotations;
-        String foldsPath;
+        File folds;
         if (onlp) {
             annotations = new File("src/main/resources/training/onlp/annotated");
-            foldsPath = "src/main/resources/training/onlp/folds/";
+            folds = new File("src/main/resources/training/onlp/folds");
         } else {
             if (annoOnly) {
                 annotations = new File("src/main/resources/training/snlp/anno/annotated");
-                foldsPath = "src/main/resources/training/snlp/anno/folds/";
+                folds = new File("src/main/resources/training/snlp/anno/folds");
             } else {
                 annotations = new File("src/main/resources/training/snlp/full/annotated");
-                foldsPath = "src/main/resources/training/snlp/full/folds/";
-            }
-        }
-        File[] dirs = annotations.listFiles(directoryFilter);
-        File[][] files = new File[10][];
-        int i = 0;
-
-        for (File dir : dirs) {
-            files[i] = dir.listFiles();
-            i++;
-        }
-
-        Arrays.sort(files, (left, right) -> Integer.compare(left.length, right.length));
-
-        for (File[] f : files) {
-            foldCounter = 0;
-            for (File file : f) {
-                findNextFold(foldsPath);
-                Files.copy(file.toPath(), new File(foldsPath + foldCounter + "/" + file.getName()).toPath());
-                if (foldCounter <9) {
-                    foldCounter++;
-                } else {
-                    foldCounter = 0;
-                }
-            }
-        }
-    }
-
-    /**
-     * Finds the next suitable fold to put the annotation file in.
-     * @param foldsPath Path to the folds
-     */
-    private static void findNextFold(String foldsPath) {
-        if (new File(foldsPath + foldCounter).list().length >= 10) {
-            if (foldCounter <9) {
-                foldCounter++;
-            } else {
-                foldCounter = 0;
+                folds = new File("src/main/resources/training/snlp/full/folds");
             }
-            findNextFold(foldsPath);
         }
+        FoldPlanner plan = FoldPlanner.plan(annotations, FoldPlanner.configuredFolds(), FoldPlanner.configuredSeed());
+        plan.save(folds);
+        plan.print();
     }
 }
\ No newline at end of file
@@ -0,0 +1,553 @@
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the pipeline stages for the whole run: counters (e.g. tokens and sentences processed) and timers (time per
+ * call of a stage with a histogram of the durations). The heap in use is sampled in the background to find its
+ * high-water mark; every timer also keeps the highest mark reached when one of its calls ended. Recording a call costs
+ * a few atomic updates, so stages are timed per report or block rather than per sentence, and callers on hot paths
+ * keep the timer and counter instead of looking them up for every call.
+ * Metrics are named "stage" or "stage.what", e.g. timer "convert" with counters "convert.tokens" and
+ * "convert.sentences"; a counter whose name starts with the name of a timer is reported as throughput of that stage.
+ * Timers of a cross-validation are kept per fold ("onlp.train[fold 3]") and in total ("onlp.train").
+ * At the end of a run {@link #report()} prints a summary and writes it as JSON and CSV. With -Dnlp.metrics.jmx=true
+ * the current values are also shown as attributes of the MBean nlp:type=Metrics (e.g. in JConsole).
+ */
+class Metrics {
+    private static final long start = System.currentTimeMillis();
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>(Metrics::compareNames);
+    private static final Map<String, Timer> timers = new ConcurrentSkipListMap<>(Metrics::compareNames);
+    private static final AtomicLong heapHighWater = new AtomicLong();
+
+    static {
+        Thread sampler = new Thread(() -> {
+            try {
+                while (true) {
+                    sampleHeap();
+                    Thread.sleep(100);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "metrics-heap");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        if (Boolean.getBoolean("nlp.metrics.jmx")) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new View(), new ObjectName("nlp:type=Metrics"));
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Number of things processed, e.g. tokens.
+     */
+    static class Counter {
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * @param n Number to be added
+         */
+        public void add(long n) {
+            count.add(n);
+        }
+
+        /**
+         * @return Current count
+         */
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * Distribution of values, kept in buckets of about 1/8 of a power of two: the exact count, sum, minimum and
+     * maximum and percentiles which are accurate to the size of their bucket (at most 12.5%).
+     */
+    static class Histogram {
+        private static final int subBits = 3;
+        private final AtomicLongArray buckets = new AtomicLongArray(64 << subBits);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        /**
+         * @param value Value (not negative)
+         */
+        public void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            if (value < min.get()) {
+                min.accumulateAndGet(value, Math::min);
+            }
+            if (value > max.get()) {
+                max.accumulateAndGet(value, Math::max);
+            }
+        }
+
+        private static int bucket(long value) {
+            if (value < (1 << subBits)) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - subBits)) & ((1 << subBits) - 1);
+            return ((exponent - subBits + 1) << subBits) + sub;
+        }
+
+        /**
+         * @return Largest value of a bucket
+         */
+        private static long upperBound(int bucket) {
+            if (bucket < (1 << subBits)) {
+                return bucket;
+            }
+            int exponent = (bucket >>> subBits) + subBits - 1;
+            long sub = bucket & ((1 << subBits) - 1);
+            return ((1L << exponent) | (sub << (exponent - subBits))) + (1L << (exponent - subBits)) - 1;
+        }
+
+        /**
+         * @param p Percentile (0 - 100)
+         * @return Upper bound of the bucket holding the percentile, 0 if nothing was recorded
+         */
+        public long percentile(double p) {
+            long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+            long seen = 0;
+            for (int i=0; i<buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMin() {
+            return count.sum() == 0 ? 0 : min.get();
+        }
+
+        public long getMax() {
+            return count.sum() == 0 ? 0 : max.get();
+        }
+    }
+
+    /**
+     * Time per call of a stage (in nanoseconds) and the heap high-water mark at the end of a call.
+     */
+    static class Timer {
+        private final Histogram durations = new Histogram();
+        private final AtomicLong heap = new AtomicLong();
+        private final Timer total;
+
+        private Timer(Timer total) {
+            this.total = total;
+        }
+
+        /**
+         * Starts timing a call, to be stopped with {@link Sample#stop()} (in a finally block if the call may fail).
+         * @return Running sample
+         */
+        public Sample start() {
+            return new Sample(this);
+        }
+
+        /**
+         * @param nanos Duration of a call
+         */
+        public void record(long nanos) {
+            durations.record(nanos);
+            long highWater = heapHighWater.get();
+            if (highWater > heap.get()) {
+                heap.accumulateAndGet(highWater, Math::max);
+            }
+            if (total != null) {
+                total.record(nanos);
+            }
+        }
+
+        /**
+         * @return Durations in nanoseconds
+         */
+        public Histogram getDurations() {
+            return durations;
+        }
+    }
+
+    /**
+     * Running call of a timer.
+     */
+    static class Sample {
+        private final Timer timer;
+        private final long start = System.nanoTime();
+        private long duration = -1;
+
+        private Sample(Timer timer) {
+            this.timer = timer;
+        }
+
+        /**
+         * Stops the sample (only the first time) and records its duration.
+         * @return Duration in nanoseconds
+         */
+        public long stop() {
+            if (duration < 0) {
+                duration = System.nanoTime() - start;
+                timer.record(duration);
+            }
+            return duration;
+        }
+    }
+
+    /**
+     * Orders names alphabetically, but numbers in them by their value (fold 2 before fold 10).
+     */
+    private static int compareNames(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            if (Character.isDigit(a.charAt(i)) && Character.isDigit(b.charAt(j))) {
+                int startA = i;
+                int startB = j;
+                while (i < a.length() && Character.isDigit(a.charAt(i))) {
+                    i++;
+                }
+                while (j < b.length() && Character.isDigit(b.charAt(j))) {
+                    j++;
+                }
+                int c = Long.compare(Long.parseLong(a.substring(startA, i)), Long.parseLong(b.substring(startB, j)));
+                if (c != 0) {
+                    return c;
+                }
+            } else {
+                if (a.charAt(i) != b.charAt(j)) {
+                    return Character.compare(a.charAt(i), b.charAt(j));
+                }
+                i++;
+                j++;
+            }
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    /**
+     * @param name Name of the counter
+     * @return Counter, created on first use
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * @param name Name of the stage
+     * @return Timer, created on first use
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, n -> new Timer(null));
+    }
+
+    /**
+     * @param name Name of the stage
+     * @param fold Fold of a cross-validation
+     * @return Timer of the stage in this fold, which also adds to the timer of the stage
+     */
+    public static Timer timer(String name, int fold) {
+        Timer total = timer(name);
+        return timers.computeIfAbsent(name + "[fold " + fold + "]", n -> new Timer(total));
+    }
+
+    /**
+     * @return Heap in use now (in bytes), which also updates the high-water mark
+     */
+    private static long sampleHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        heapHighWater.accumulateAndGet(used, Math::max);
+        return used;
+    }
+
+    /**
+     * @return Highest heap in use (in bytes) seen so far
+     */
+    public static long getHeapHighWater() {
+        sampleHeap();
+        return heapHighWater.get();
+    }
+
+    /**
+     * Sum of the peak usage of the heap memory pools as tracked by the JVM. The pools peak at different times,
+     * so this is an upper bound of the heap ever in use, while the sampled high-water mark is a lower bound.
+     */
+    private static long heapPoolPeaks() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Prints the metrics of the run and writes them into the directory set with -Dnlp.metrics.dir
+     * (default: target/metrics) as run-&lt;time&gt;.json and run-&lt;time&gt;.csv.
+     * Does nothing if no metric was recorded.
+     */
+    public static void report() {
+        if (counters.isEmpty() && timers.isEmpty()) {
+            return;
+        }
+        print();
+        File dir = new File(System.getProperty("nlp.metrics.dir", "target/metrics"));
+        String name = "run-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(start));
+        try {
+            dir.mkdirs();
+            writeJson(new File(dir, name + ".json"));
+            writeCsv(new File(dir, name + ".csv"));
+            System.out.println("Metrics written to " + new File(dir, name + ".json").getPath() + " and .csv");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Prints the timers and counters as a table.
+     */
+    public static void print() {
+        System.out.println("--------------------------------------------------------------------------");
+        System.out.println(String.format("%-32s %7s %10s %9s %9s %9s %8s", "Stage", "Calls", "Total s", "Mean ms", "P90 ms", "Max ms", "Heap MB"));
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            Histogram d = e.getValue().durations;
+            System.out.println(String.format(Locale.ROOT, "%-32s %7d %10.2f %9.2f %9.2f %9.2f %8d", e.getKey(), d.getCount(),
+                    d.getSum() / 1e9, mean(d) / 1e6, d.percentile(90) / 1e6, d.getMax() / 1e6, e.getValue().heap.get() >> 20));
+        }
+        System.out.println();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            double rate = throughput(e.getKey(), e.getValue());
+            System.out.println(String.format(Locale.ROOT, "%-32s %12d%s", e.getKey(), e.getValue().get(),
+                    rate < 0 ? "" : String.format(Locale.ROOT, " (%.0f/s)", rate)));
+        }
+        System.out.println();
+        System.out.println("Heap high-water mark: " + (getHeapHighWater() >> 20) + " MB (sampled), "
+                + (heapPoolPeaks() >> 20) + " MB (sum of pool peaks)");
+    }
+
+    private static double mean(Histogram h) {
+        return h.getCount() == 0 ? 0.0 : (double) h.getSum() / h.getCount();
+    }
+
+    /**
+     * @return Count per second of the time of the stage the counter belongs to, -1 if there is no such stage
+     */
+    private static double throughput(String counter, Counter c) {
+        for (int dot = counter.lastIndexOf('.'); dot > 0; dot = counter.lastIndexOf('.', dot - 1)) {
+            Timer timer = timers.get(counter.substring(0, dot));
+            if (timer != null && timer.durations.getSum() > 0) {
+                return c.get() / (timer.durations.getSum() / 1e9);
+            }
+        }
+        return -1;
+    }
+
+    private static void writeJson(File out) throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8))) {
+            bw.write("{\n");
+            bw.write("  \"start\": " + quote(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date(start))) + ",\n");
+            bw.write("  \"durationMs\": " + (System.currentTimeMillis() - start) + ",\n");
+            bw.write("  \"heap\": {\"highWaterBytes\": " + getHeapHighWater() + ", \"poolPeaksBytes\": " + heapPoolPeaks()
+                    + ", \"maxBytes\": " + Runtime.getRuntime().maxMemory() + "},\n");
+
+            bw.write("  \"counters\": {");
+            String separator = "\n";
+            for (Map.Entry<String, Counter> e : counters.entrySet()) {
+                double rate = throughput(e.getKey(), e.getValue());
+                bw.write(separator + "    " + quote(e.getKey()) + ": {\"count\": " + e.getValue().get()
+                        + (rate < 0 ? "" : ", \"perSecond\": " + String.format(Locale.ROOT, "%.1f", rate)) + "}");
+                separator = ",\n";
+            }
+            bw.write("\n  },\n");
+
+            bw.write("  \"timers\": {");
+            separator = "\n";
+            for (Map.Entry<String, Timer> e : timers.entrySet()) {
+                bw.write(separator + "    " + quote(e.getKey()) + ": {" + histogramJson(e.getValue().durations, 1e6, "Ms")
+                        + ", \"heapHighWaterBytes\": " + e.getValue().heap.get() + "}");
+                separator = ",\n";
+            }
+            bw.write("\n  }\n}\n");
+        }
+    }
+
+    private static String histogramJson(Histogram h, double scale, String unit) {
+        return String.format(Locale.ROOT, "\"count\": %d, \"total%s\": %.3f, \"mean%s\": %.3f, \"min%s\": %.3f, \"p50%s\": %.3f, "
+                        + "\"p90%s\": %.3f, \"p99%s\": %.3f, \"max%s\": %.3f", h.getCount(), unit, h.getSum() / scale,
+                unit, mean(h) / scale, unit, h.getMin() / scale, unit, h.percentile(50) / scale, unit, h.percentile(90) / scale,
+                unit, h.percentile(99) / scale, unit, h.getMax() / scale);
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * One line per metric: type, name, count, total, mean, min, p50, p90, p99, max (timers in ms), heap (timers, in
+     * bytes) and throughput (counters, per second).
+     */
+    private static void writeCsv(File out) throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8))) {
+            bw.write("type,name,count,total,mean,min,p50,p90,p99,max,heap,perSecond");
+            bw.newLine();
+            for (Map.Entry<String, Timer> e : timers.entrySet()) {
+                bw.write("timer," + csv(e.getKey()) + "," + histogramCsv(e.getValue().durations, 1e6) + "," + e.getValue().heap.get() + ",");
+                bw.newLine();
+            }
+            for (Map.Entry<String, Counter> e : counters.entrySet()) {
+                double rate = throughput(e.getKey(), e.getValue());
+                bw.write("counter," + csv(e.getKey()) + "," + e.getValue().get() + ",,,,,,,,,"
+                        + (rate < 0 ? "" : String.format(Locale.ROOT, "%.1f", rate)));
+                bw.newLine();
+            }
+            bw.write("heap,high-water,,,,,,,,," + getHeapHighWater() + ",");
+            bw.newLine();
+        }
+    }
+
+    private static String histogramCsv(Histogram h, double scale) {
+        return String.format(Locale.ROOT, "%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f", h.getCount(), h.getSum() / scale,
+                mean(h) / scale, h.getMin() / scale, h.percentile(50) / scale, h.percentile(90) / scale,
+                h.percentile(99) / scale, h.getMax() / scale);
+    }
+
+    private static String csv(String s) {
+        return s.contains(",") || s.contains("\"") ? "\"" + s.replace("\"", "\"\"") + "\"" : s;
+    }
+
+    /**
+     * Read-only JMX view of the current values, one attribute per value, e.g. "convert.count", "convert.totalMs",
+     * "convert.tokens" and "heap.highWaterBytes".
+     */
+    private static class View implements DynamicMBean {
+
+        private Map<String, Object> values() {
+            Map<String, Object> values = new ConcurrentHashMap<>();
+            for (Map.Entry<String, Counter> e : counters.entrySet()) {
+                values.put(e.getKey(), e.getValue().get());
+            }
+            for (Map.Entry<String, Timer> e : timers.entrySet()) {
+                Histogram d = e.getValue().durations;
+                values.put(e.getKey() + ".count", d.getCount());
+                values.put(e.getKey() + ".totalMs", d.getSum() / 1e6);
+                values.put(e.getKey() + ".meanMs", mean(d) / 1e6);
+                values.put(e.getKey() + ".p90Ms", d.percentile(90) / 1e6);
+                values.put(e.getKey() + ".maxMs", d.getMax() / 1e6);
+            }
+            values.put("heap.highWaterBytes", getHeapHighWater());
+            return values;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = values().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> values = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("No operations");
+        }
+
+        private static Map<String, Object> sorted(Map<String, Object> values) {
+            Map<String, Object> sorted = new ConcurrentSkipListMap<>(Metrics::compareNames);
+            sorted.putAll(values);
+            return sorted;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Object> e : sorted(values()).entrySet()) {
+                attributes.add(new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(), e.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Pipeline metrics of this run",
+                    attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+        }
+    }
+}
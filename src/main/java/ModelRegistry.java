@@ -0,0 +1,314 @@
+import opennlp.model.Context;
+import opennlp.model.IndexHashTable;
+import opennlp.tools.namefind.TokenNameFinderModel;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Registry of the trained models which loads a model on its first use and keeps a bounded number of them in memory.
+ * Models are looked up by toolkit, domain, feature set and fold (see {@link Key}); all callers asking for the same
+ * model share one instance, and a model requested while it is being loaded is loaded only once.
+ * When more models are resident than allowed, or their estimated heap exceeds the limit, the least recently used
+ * models are dropped (callers still holding one keep using it until they let go of it). The model used last is never
+ * dropped, even if it alone exceeds the heap limit.
+ */
+class ModelRegistry {
+
+    enum Toolkit {
+        OPENNLP,
+        STANFORD
+    }
+
+    /**
+     * Identifies a trained model. Stanford models are trained on the full reports or on annotated sentences only
+     * (data "full" or "anno"); the cross-validation trains feature set 10, the feature-set sweep trains the others
+     * on all of its training data (fold -1).
+     */
+    static final class Key {
+        /** Feature set of the Stanford cross-validation and domain evaluation */
+        static final int crossValidationFeatureSet = 10;
+
+        final Toolkit toolkit;
+        final String data;
+        final String domain;
+        final int featureSet;
+        final int fold;
+
+        private Key(Toolkit toolkit, String data, String domain, int featureSet, int fold) {
+            this.toolkit = toolkit;
+            this.data = data;
+            this.domain = domain;
+            this.featureSet = featureSet;
+            this.fold = fold;
+        }
+
+        /**
+         * @param domain Domain, null = global cross-validation
+         * @param fold Fold the model was evaluated on
+         * @return Key of an OpenNLP model
+         */
+        static Key openNlp(String domain, int fold) {
+            return new Key(Toolkit.OPENNLP, null, domain, 0, fold);
+        }
+
+        /**
+         * @param annoOnly True = trained on annotated sentences only, false = on full reports
+         * @param domain Domain, null = global cross-validation
+         * @param featureSet Feature set
+         * @param fold Fold the model was evaluated on, -1 = model of the feature-set sweep
+         * @return Key of a Stanford classifier
+         */
+        static Key stanford(boolean annoOnly, String domain, int featureSet, int fold) {
+            return new Key(Toolkit.STANFORD, annoOnly ? "anno" : "full", domain, featureSet, fold);
+        }
+
+        /**
+         * @param modelDir Model directory (src/main/resources/models)
+         * @return File the model is saved in
+         */
+        File file(File modelDir) {
+            if (toolkit == Toolkit.OPENNLP) {
+                return new File(modelDir, domain == null ? "onlp/custom/global-" + fold + ".bin"
+                        : "onlp/custom/domain/" + domain + "/sector-" + fold + ".bin");
+            }
+            if (fold < 0) {
+                if (domain != null) {
+                    throw new IllegalArgumentException("The feature-set sweep has no domain models: " + this);
+                }
+                return new File(modelDir, "snlp/features/" + data + "/"
+                        + (featureSet == 0 ? "feature-set-default" : "feature-set-" + featureSet) + ".ser.gz");
+            }
+            if (featureSet != crossValidationFeatureSet) {
+                throw new IllegalArgumentException("Only feature set " + crossValidationFeatureSet + " has models per fold: " + this);
+            }
+            return new File(modelDir, (domain == null ? "snlp/cross/" + data : "snlp/cross/domain/" + data + "/" + domain)
+                    + "/" + fold + "-eval.ser.gz");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return toolkit == k.toolkit && Objects.equals(data, k.data) && Objects.equals(domain, k.domain)
+                    && featureSet == k.featureSet && fold == k.fold;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(toolkit, data, domain, featureSet, fold);
+        }
+
+        @Override
+        public String toString() {
+            return toolkit + (data != null ? "/" + data : "") + "/" + (domain != null ? domain : "global")
+                    + (toolkit == Toolkit.STANFORD ? "/set " + featureSet : "") + "/fold " + fold;
+        }
+    }
+
+    private static class Entry {
+        private final FutureTask<Object> model;
+        /** Estimated heap, 0 while loading */
+        private long heap = 0;
+
+        private Entry(FutureTask<Object> model) {
+            this.model = model;
+        }
+    }
+
+    private final File modelDir;
+    private final int maxModels;
+    private final long maxHeap;
+    /** Resident models in order of their last use */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long heap = 0;
+    private long hits = 0;
+    private long loads = 0;
+    private long evictions = 0;
+    private long loadTime = 0;
+
+    /**
+     * @param modelDir Model directory (src/main/resources/models)
+     * @param maxModels Maximum number of resident models
+     * @param maxHeap Maximum estimated heap (in bytes) of the resident models
+     */
+    public ModelRegistry(File modelDir, int maxModels, long maxHeap) {
+        this.modelDir = modelDir;
+        this.maxModels = Math.max(1, maxModels);
+        this.maxHeap = maxHeap;
+    }
+
+    /**
+     * Creates a registry with the limits from the system properties: -Dnlp.registry.maxModels=n (default: 8) and
+     * -Dnlp.registry.maxHeap=n (in MB, default: a quarter of the maximum heap).
+     * @param modelDir Model directory
+     * @return Model registry
+     */
+    public static ModelRegistry fromSystemProperties(File modelDir) {
+        long maxHeap = Long.getLong("nlp.registry.maxHeap", Runtime.getRuntime().maxMemory() / 4 / (1024 * 1024));
+        return new ModelRegistry(modelDir, Integer.getInteger("nlp.registry.maxModels", 8), maxHeap * 1024 * 1024);
+    }
+
+    /**
+     * @param key Key of an OpenNLP model
+     * @return Shared name finder model (every thread needs its own NameFinderME)
+     * @throws IOException If the model cannot be loaded
+     */
+    public TokenNameFinderModel getOpenNlp(Key key) throws IOException {
+        if (key.toolkit != Toolkit.OPENNLP) {
+            throw new IllegalArgumentException("Not an OpenNLP model: " + key);
+        }
+        return (TokenNameFinderModel) get(key);
+    }
+
+    /**
+     * @param key Key of a Stanford classifier
+     * @return Shared classifier
+     * @throws IOException If the classifier cannot be loaded
+     */
+    public SharedCRFClassifier getStanford(Key key) throws IOException {
+        if (key.toolkit != Toolkit.STANFORD) {
+            throw new IllegalArgumentException("Not a Stanford classifier: " + key);
+        }
+        return (SharedCRFClassifier) get(key);
+    }
+
+    /**
+     * Returns the resident model or loads it (outside of the lock, so other models can be looked up meanwhile).
+     */
+    private Object get(Key key) throws IOException {
+        Entry entry;
+        boolean load = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                File file = key.file(modelDir);
+                entry = new Entry(new FutureTask<>(() -> load(key, file)));
+                entries.put(key, entry);
+                load = true;
+                loads++;
+            } else {
+                hits++;
+            }
+        }
+
+        if (load) {
+            long start = System.nanoTime();
+            entry.model.run();
+            long size = -1;
+            try {
+                // done, does not block
+                size = estimateHeap(entry.model.get());
+            } catch (ExecutionException | InterruptedException e) {
+                // not kept, the next request tries again
+            }
+            synchronized (this) {
+                loadTime += System.nanoTime() - start;
+                if (size < 0) {
+                    entries.remove(key, entry);
+                } else if (entries.get(key) == entry) {
+                    entry.heap = size;
+                    heap += size;
+                    evict(key);
+                }
+            }
+        }
+
+        try {
+            return entry.model.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + key, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot load " + key, e.getCause());
+        }
+    }
+
+    private static Object load(Key key, File file) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException("No model for " + key + ": " + file.getPath());
+        }
+        if (key.toolkit == Toolkit.STANFORD) {
+            return SharedCRFClassifier.load(file);
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return new TokenNameFinderModel(in);
+        }
+    }
+
+    /**
+     * Drops the least recently used loaded models (but not the given one) until the limits are kept.
+     */
+    private void evict(Key keep) {
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxModels || heap > maxHeap) && eldest.hasNext()) {
+            Map.Entry<Key, Entry> e = eldest.next();
+            if (!e.getKey().equals(keep) && e.getValue().model.isDone()) {
+                heap -= e.getValue().heap;
+                eldest.remove();
+                evictions++;
+            }
+        }
+    }
+
+    private static long estimateHeap(Object model) {
+        if (model instanceof SharedCRFClassifier) {
+            return ((SharedCRFClassifier) model).estimateHeap();
+        }
+        // the maxent model of the name finder: parameters per predicate and the predicate index
+        Object[] data = ((TokenNameFinderModel) model).getNameFinderModel().getDataStructures();
+        long bytes = 0;
+        for (Context context : (Context[]) data[0]) {
+            bytes += 24 + 16 + 4L * context.getOutcomes().length + 16 + 8L * context.getParameters().length;
+        }
+        @SuppressWarnings("unchecked")
+        IndexHashTable<String> predicates = (IndexHashTable<String>) data[1];
+        for (String predicate : predicates.toArray(new String[predicates.size()])) {
+            bytes += SharedCRFClassifier.stringBytes(predicate) + 16;
+        }
+        return bytes;
+    }
+
+    /**
+     * Drops all resident models, e.g. after they were trained again; they are loaded anew when requested.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        heap = 0;
+    }
+
+    /**
+     * @return Estimated heap (in bytes) of the resident models
+     */
+    public synchronized long getHeap() {
+        return heap;
+    }
+
+    /**
+     * Prints the resident models and how often a model was found resident, loaded and dropped.
+     */
+    public synchronized void print() {
+        System.out.println("Resident models: " + entries.size() + " of " + maxModels + ", "
+                + heap / (1024 * 1024) + " of " + maxHeap / (1024 * 1024) + " MB (estimated)");
+        for (Map.Entry<Key, Entry> e : entries.entrySet()) {
+            System.out.println(String.format("  %-40s %8.1f MB", e.getKey(), e.getValue().heap / (1024.0 * 1024.0)));
+        }
+        System.out.println(String.format("Hits: %d, loads: %d, evictions: %d, load time: %.1f s", hits, loads, evictions, loadTime / 1e9));
+    }
+}
@@ -0,0 +1,56 @@
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.util.ObjectStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Name sample stream over several OpenNLP training files, read one after another from the {@link NameSampleCorpus}.
+ * Replaces the concatenated training file: the first sample of every following file clears the adaptive data,
+ * just like the blank line which separated the files in the concatenation did.
+ */
+class MultiFileSampleStream implements ObjectStream<NameSample> {
+    private final File[] files;
+    private List<NameSample> current;
+    private int next = 0;
+    private int index = 0;
+
+    /**
+     * @param files Training files in the order they are read
+     */
+    public MultiFileSampleStream(File[] files) {
+        this.files = files;
+    }
+
+    @Override
+    public NameSample read() throws IOException {
+        while (current == null || index >= current.size()) {
+            if (next >= files.length) {
+                return null;
+            }
+            current = NameSampleCorpus.samples(files[next]);
+            index = 0;
+            next++;
+        }
+
+        NameSample sample = current.get(index);
+        if (index == 0 && next > 1 && !sample.isClearAdaptiveDataSet()) {
+            sample = new NameSample(sample.getSentence(), sample.getNames(), sample.getAdditionalContext(), true);
+        }
+        index++;
+        return sample;
+    }
+
+    @Override
+    public void reset() {
+        current = null;
+        next = 0;
+        index = 0;
+    }
+
+    @Override
+    public void close() {
+        current = null;
+    }
+}
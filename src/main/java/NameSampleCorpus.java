@@ -0,0 +1,112 @@
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.namefind.NameSampleDataStream;
+import opennlp.tools.util.ObjectStream;
+import opennlp.tools.util.PlainTextByLineStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Cache of parsed OpenNLP training files (.train), shared by all folds of the cross-validation and all domains.
+ * Every file is parsed into name samples only once and is parsed again only if it was modified on disk.
+ * With a binary corpus the samples are read from the corpus instead of parsing the file.
+ */
+class NameSampleCorpus {
+    private static final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Samples of a file (parsed once by the first caller) together with the modification time they were parsed at.
+     */
+    private static class Entry {
+        private final long lastModified;
+        private final FutureTask<List<NameSample>> samples;
+
+        private Entry(long lastModified, FutureTask<List<NameSample>> samples) {
+            this.lastModified = lastModified;
+            this.samples = samples;
+        }
+    }
+
+    /**
+     * Returns the samples of a training file, parsing it if it is not cached yet or changed since.
+     * Concurrent requests for the same file wait for a single parse, which runs outside of the map's locks, so
+     * other files are parsed at the same time.
+     * @param file Training file in OpenNLP format
+     * @return Unmodifiable list of samples in file order
+     * @throws IOException
+     */
+    public static List<NameSample> samples(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+
+        while (true) {
+            Entry entry = cache.get(key);
+            if (entry == null || entry.lastModified != lastModified) {
+                Entry parsing = new Entry(lastModified, new FutureTask<>(() -> parse(file)));
+                if (entry == null ? cache.putIfAbsent(key, parsing) != null : !cache.replace(key, entry, parsing)) {
+                    // another caller put its entry first
+                    continue;
+                }
+                entry = parsing;
+                parsing.samples.run();
+            }
+            try {
+                return entry.samples.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while parsing " + file, e);
+            } catch (ExecutionException e) {
+                // not kept, the next request tries again
+                cache.remove(key, entry);
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Cannot parse " + file, e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Creates a stream over the cached samples of the given files without copying them.
+     * @param files Training files in the order they are read
+     * @return Name sample stream
+     */
+    public static ObjectStream<NameSample> stream(File[] files) {
+        return new MultiFileSampleStream(files);
+    }
+
+    /**
+     * Parses a training file, or takes its samples from the binary corpus if it holds the file
+     * (see {@link BinaryCorpus#configured()}).
+     */
+    private static List<NameSample> parse(File file) throws IOException {
+        BinaryCorpus corpus = BinaryCorpus.configured();
+        int document = corpus == null ? -1 : corpus.findOpenNlp(file);
+        if (document >= 0) {
+            return Collections.unmodifiableList(corpus.nameSamples(document));
+        }
+
+        ArrayList<NameSample> samples = new ArrayList<>();
+        NameSample sample;
+        Metrics.Sample timer = Metrics.timer("onlp.parse").start();
+
+        ObjectStream<NameSample> sampleStream = new NameSampleDataStream(new PlainTextByLineStream(new Utf8FileReader(file)));
+        try {
+            while ((sample = sampleStream.read()) != null) {
+                samples.add(sample);
+            }
+        } finally {
+            sampleStream.close();
+            timer.stop();
+        }
+        Metrics.counter("onlp.parse.sentences").add(samples.size());
+        samples.trimToSize();
+        return Collections.unmodifiableList(samples);
+    }
+}
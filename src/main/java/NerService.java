@@ -0,0 +1,424 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.Span;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Resident NER service on localhost which loads the trained OpenNLP and Stanford models once and tags the text of
+ * incoming requests with them, instead of starting a JVM and reading a model for every run.
+ * Requests are handled by a fixed number of threads. NameFinderME is not thread-safe, so every handler thread keeps its
+ * own name finder per model (like the {@link Preprocessor} does); a Stanford classifier is shared by all threads.
+ * <pre>
+ * GET  /models                              names of the loaded models, one per line
+ * POST /tag?model=name[&amp;tokenized=true]    tags the UTF-8 body, plain text (split into sentences and tokenized)
+ *                                           or one sentence per line with a blank space between each token
+ * POST /tag?toolkit=onlp|snlp&amp;fold=n[&amp;domain=name][&amp;data=full|anno][&amp;featureSet=n][&amp;tokenized=true]
+ *                                           tags with a model of the {@link ModelRegistry}, loaded on first use
+ *                                           (data: default anno, feature set: default 10)
+ * </pre>
+ * Every entity found is answered with one line: sentence, first token, end token (exclusive), type, text (tab-separated).
+ */
+class NerService {
+
+    /**
+     * Named entity recognizer of one loaded model.
+     */
+    private interface Tagger {
+        /**
+         * @param sentences Tokens of each sentence of a document
+         * @return Entities of each sentence (token spans)
+         */
+        Span[][] tag(String[][] sentences);
+    }
+
+    private final Map<String, Tagger> taggers = new TreeMap<>();
+    private final int threads;
+    private ModelRegistry registry;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param threads Number of requests handled at the same time
+     */
+    public NerService(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param registry Registry of the models requested by key, null = only the loaded models are served
+     */
+    public void setRegistry(ModelRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Finds the models under the model directory: OpenNLP models (*.bin) in onlp/custom and Stanford classifiers
+     * (*.ser.gz) anywhere in snlp.
+     * @param modelDir Model directory (src/main/resources/models)
+     * @return Model files, in order of their paths
+     */
+    public static List<File> findModels(File modelDir) {
+        List<File> models = new ArrayList<>();
+        findModels(new File(modelDir, "onlp/custom"), ".bin", models);
+        findModels(new File(modelDir, "snlp"), ".ser.gz", models);
+        Collections.sort(models);
+        return models;
+    }
+
+    private static void findModels(File dir, String extension, List<File> models) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                findModels(file, extension, models);
+            } else if (file.getName().endsWith(extension)) {
+                models.add(file);
+            }
+        }
+    }
+
+    /**
+     * Name of a model in requests: its path below the model directory without the extension,
+     * e.g. "onlp/custom/global-1" or "snlp/cross/anno/0-eval".
+     * @param modelDir Model directory
+     * @param model Model file
+     * @return Name of the model
+     */
+    public static String modelName(File modelDir, File model) {
+        String name = modelDir.toURI().relativize(model.toURI()).getPath();
+        return name.substring(0, name.length() - (name.endsWith(".ser.gz") ? ".ser.gz".length() : ".bin".length()));
+    }
+
+    /**
+     * Loads a model, an OpenNLP name finder model (*.bin) or a Stanford classifier (*.ser.gz).
+     * @param name Name of the model in requests
+     * @param model Model file
+     * @throws IOException
+     */
+    public void load(String name, File model) throws IOException {
+        long start = System.nanoTime();
+        Tagger tagger;
+        if (model.getName().endsWith(".ser.gz")) {
+            tagger = stanfordTagger(SharedCRFClassifier.load(model));
+        } else {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(model))) {
+                tagger = openNlpTagger(new TokenNameFinderModel(in));
+            }
+        }
+        synchronized (taggers) {
+            taggers.put(name, tagger);
+        }
+        System.out.println("Loaded " + name + " (" + (System.nanoTime() - start) / 1000000 + " ms)");
+    }
+
+    /**
+     * @return Names of the loaded models
+     */
+    public Set<String> models() {
+        synchronized (taggers) {
+            return new TreeSet<>(taggers.keySet());
+        }
+    }
+
+    /**
+     * Tags a document with a loaded model.
+     * @param model Name of the model
+     * @param sentences Tokens of each sentence
+     * @return Entities of each sentence (token spans)
+     */
+    public Span[][] tag(String model, String[][] sentences) {
+        Tagger tagger;
+        synchronized (taggers) {
+            tagger = taggers.get(model);
+        }
+        if (tagger == null) {
+            throw new IllegalArgumentException("Unknown model: " + model);
+        }
+        return tagger.tag(sentences);
+    }
+
+    private static Tagger openNlpTagger(TokenNameFinderModel model) {
+        ThreadLocal<NameFinderME> finder = ThreadLocal.withInitial(() -> new NameFinderME(model));
+        return sentences -> find(finder.get(), sentences);
+    }
+
+    private static Span[][] find(NameFinderME nameFinder, String[][] sentences) {
+        Span[][] spans = new Span[sentences.length][];
+        try {
+            for (int i=0; i<sentences.length; i++) {
+                spans[i] = nameFinder.find(sentences[i]);
+            }
+        } finally {
+            // the adaptive data belongs to one document
+            nameFinder.clearAdaptiveData();
+        }
+        return spans;
+    }
+
+    /**
+     * Tagger of a registry model, looked up by the request parameters.
+     */
+    private Tagger registryTagger(Map<String, String> query) throws IOException {
+        String toolkit = query.get("toolkit");
+        String fold = query.get("fold");
+        if (fold == null) {
+            throw new IllegalArgumentException("Missing fold");
+        }
+        if (toolkit.equals("onlp")) {
+            TokenNameFinderModel model = registry.getOpenNlp(ModelRegistry.Key.openNlp(query.get("domain"), Integer.parseInt(fold)));
+            // a name finder per request (~20 us): kept per thread it would keep evicted models alive
+            return sentences -> find(new NameFinderME(model), sentences);
+        }
+        if (toolkit.equals("snlp")) {
+            boolean annoOnly = !"full".equals(query.get("data"));
+            int featureSet = query.containsKey("featureSet") ? Integer.parseInt(query.get("featureSet"))
+                    : ModelRegistry.Key.crossValidationFeatureSet;
+            return stanfordTagger(registry.getStanford(ModelRegistry.Key.stanford(annoOnly, query.get("domain"), featureSet,
+                    Integer.parseInt(fold))));
+        }
+        throw new IllegalArgumentException("Unknown toolkit: " + toolkit);
+    }
+
+    private static Tagger stanfordTagger(SharedCRFClassifier classifier) {
+        return sentences -> {
+            Span[][] spans = new Span[sentences.length][];
+            for (int i=0; i<sentences.length; i++) {
+                spans[i] = classifier.tag(sentences[i]);
+            }
+            return spans;
+        };
+    }
+
+    /**
+     * Starts the HTTP server on the loopback interface.
+     * @param port Port, 0 = any free port
+     * @throws IOException
+     */
+    public void start(int port) throws IOException {
+        // the headers and the body of a response are written separately, with Nagle's algorithm the body waits for
+        // the delayed ACK of the client (~40 ms per request); read once when the server classes are loaded
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/models", this::handleModels);
+        server.createContext("/tag", this::handleTag);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+        System.out.println("NER service listening on http://localhost:" + getPort() + "/ with " + threads + " thread(s)");
+    }
+
+    /**
+     * @return Port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server after the running requests are answered.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    private void handleModels(HttpExchange exchange) throws IOException {
+        StringBuilder response = new StringBuilder();
+        for (String model : models()) {
+            response.append(model).append('\n');
+        }
+        respond(exchange, 200, response.toString());
+    }
+
+    private void handleTag(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "POST required\n");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String model = query.get("model");
+            Tagger tagger;
+            if (model == null && query.containsKey("toolkit") && registry != null) {
+                try {
+                    tagger = registryTagger(query);
+                } catch (FileNotFoundException e) {
+                    respond(exchange, 404, e.getMessage() + "\n");
+                    return;
+                } catch (IllegalArgumentException e) {
+                    respond(exchange, 400, e.getMessage() + "\n");
+                    return;
+                }
+            } else {
+                synchronized (taggers) {
+                    tagger = model == null ? null : taggers.get(model);
+                }
+                if (tagger == null) {
+                    respond(exchange, 404, "Unknown model: " + model + "\n");
+                    return;
+                }
+            }
+            String text;
+            try (InputStream in = exchange.getRequestBody()) {
+                text = IOUtils.toString(in, StandardCharsets.UTF_8);
+            }
+            String[][] sentences = Boolean.parseBoolean(query.get("tokenized")) ? splitTokenized(text)
+                    : Preprocessor.getInstance().tokenize(Preprocessor.getInstance().detectSentences(text));
+            Span[][] spans = tagger.tag(sentences);
+
+            StringBuilder response = new StringBuilder();
+            for (int i=0; i<spans.length; i++) {
+                for (Span span : spans[i]) {
+                    response.append(i).append('\t').append(span.getStart()).append('\t').append(span.getEnd())
+                            .append('\t').append(span.getType()).append('\t')
+                            .append(String.join(" ", Arrays.copyOfRange(sentences[i], span.getStart(), span.getEnd())))
+                            .append('\n');
+                }
+            }
+            respond(exchange, 200, response.toString());
+        } catch (RuntimeException | IOException e) {
+            e.printStackTrace();
+            respond(exchange, 500, e + "\n");
+        }
+    }
+
+    private static String[][] splitTokenized(String text) {
+        List<String[]> sentences = new ArrayList<>();
+        for (String line : text.split("\r?\n")) {
+            String sentence = line.trim();
+            if (!sentence.isEmpty()) {
+                sentences.add(sentence.split(" +"));
+            }
+        }
+        return sentences.toArray(new String[sentences.size()][]);
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Load generator: sends tokenized sentences from several client threads to a running service, one sentence per
+     * request, and prints the latency percentiles and the throughput. The first tenth of the requests warm up the
+     * service and are not measured.
+     * @param port Port of the service on localhost
+     * @param model Name of the model
+     * @param sentences Tokenized sentences (blank space between each token), sent in turn
+     * @param clients Number of clients sending requests at the same time
+     * @param requests Number of requests per client
+     */
+    public static void loadTest(int port, String model, List<String> sentences, int clients, int requests) {
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        List<Future<long[]>> results = new ArrayList<>();
+        int warmUp = requests / 10;
+        long start = System.nanoTime();
+
+        try {
+            URL url = new URL("http", "localhost", port, "/tag?model=" + URLEncoder.encode(model, "UTF-8") + "&tokenized=true");
+            for (int c=0; c<clients; c++) {
+                int client = c;
+                results.add(executor.submit(() -> {
+                    long[] latencies = new long[requests - warmUp];
+                    for (int r=0; r<requests; r++) {
+                        String sentence = sentences.get((client * requests + r) % sentences.size());
+                        long sent = System.nanoTime();
+                        post(url, sentence);
+                        if (r >= warmUp) {
+                            latencies[r - warmUp] = System.nanoTime() - sent;
+                        }
+                    }
+                    return latencies;
+                }));
+            }
+
+            long[] latencies = new long[0];
+            for (Future<long[]> result : results) {
+                long[] l = result.get();
+                int offset = latencies.length;
+                latencies = Arrays.copyOf(latencies, offset + l.length);
+                System.arraycopy(l, 0, latencies, offset, l.length);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Arrays.sort(latencies);
+
+            System.out.println("--------------------------------------------------------------------------");
+            System.out.println(model + ": " + clients + " client(s), " + latencies.length + " measured requests");
+            System.out.printf("p50: %.2f ms, p90: %.2f ms, p99: %.2f ms, max: %.2f ms, %.1f requests/s%n",
+                    percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+                    latencies.length > 0 ? latencies[latencies.length - 1] / 1e6 : 0.0,
+                    clients * requests / seconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static String post(URL url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        if (connection.getResponseCode() != 200) {
+            throw new IOException("HTTP " + connection.getResponseCode() + " from " + url);
+        }
+        // reading the whole response lets the connection be kept alive for the next request
+        try (InputStream in = connection.getInputStream()) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -1,213 +1,138 @@
 import opennlp.tools.namefind.*;
-import opennlp.tools.sentdetect.SentenceDetectorME;
-import opennlp.tools.sentdetect.SentenceModel;
-import opennlp.tools.tokenize.Tokenizer;
-import opennlp.tools.tokenize.TokenizerME;
-import opennlp.tools.tokenize.TokenizerModel;
 import opennlp.tools.util.ObjectStream;
-import opennlp.tools.util.PlainTextByLineStream;
 import opennlp.tools.util.eval.FMeasure;
 
 import java.io.*;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * NER Pipeline consisting of sentence detector, tokenizer and named entity recognizer.
- * Exposes the 'evaluate' method which internally performs the necessary steps to create the training file,
- * train the model and evaluate the model against test files.
+ * Exposes the 'evaluate' method which internally performs the necessary steps to train the model
+ * on the training files and evaluate the model against test files.
  * @author Maxim Serebrianski
  */
 class OpenNLP {
 
     /**
-     * Performs pre-processing like loading models and recording processing time.
+     * Performs pre-processing with the shared pre-processor and records the processing time (stage "preprocess").
      * @param text Report as plain text
      * @param out Tokenized report
      */
     public static void preProcess(String text, File out) {
-        SentenceModel sm = null;
-        TokenizerModel tm = null;
+        Preprocessor preprocessor;
         try {
-            sm = loadSentenceModel();
-            tm = loadTokenizerModel();
-        } catch (FileNotFoundException e) {
+            preprocessor = Preprocessor.getInstance();
+        } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
 
-        long startTime = System.currentTimeMillis();
+        Metrics.Sample sample = Metrics.timer("preprocess").start();
 
         System.out.println("Generating unannotated training file ...");
-        generateTokenizedReport(text, out, sm, tm);
+        preprocessor.generateTokenizedReport(text, out);
 
-        System.out.println("Duration: " + (System.currentTimeMillis() - startTime) + " ms");
+        System.out.println("Duration: " + sample.stop() / 1000000 + " ms");
         System.out.println("-----------------------------------------------");
     }
 
     /**
-     * 1. Splits the text into sentences
-     * 2. Generates tokenized form of the text separated by a blank space character between each token
-     * @param text Text to be tokenized
-     * @param output File with tokenized text
-     * @param sm Sentence model used to split the text into sentences
-     * @param tm Tokenizer model used to tokenize the text
+     * Performs pre-processing of many reports in one call, using one sentence detector and tokenizer per thread.
+     * @param reports Reports as plain text mapped by the file the tokenized report is written to
+     * @param threads Number of reports processed at the same time
      */
-    private static void generateTokenizedReport(String text, File output, SentenceModel sm, TokenizerModel tm) {
-        try(BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"))) {
-            String[] sentences = detectSentences(text, sm);
-            for (String s : sentences){
-                String[] tokens = tokenizeSentence(s, tm);
-                StringBuilder sb = new StringBuilder();
-                for (String token : tokens) {
-                    sb.append(token).append(" ");
-                }
-                out.write(sb.toString().trim());
-                out.newLine();
-            }
-        }catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Loads the sentence model.
-     * @return Sentence model
-     * @throws FileNotFoundException
-     */
-    private static SentenceModel loadSentenceModel() throws FileNotFoundException {
-    	InputStream modelIn = new FileInputStream("src/main/resources/models/onlp/opensource/en-sent.bin");
-        SentenceModel model = null;
-
+    public static void preProcess(Map<File, String> reports, int threads) {
+        Preprocessor preprocessor;
         try {
-            model = new SentenceModel(modelIn);
+            preprocessor = Preprocessor.getInstance();
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            try {
-                modelIn.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            return;
         }
-        return model;
-    }
 
-    /**
-     * Loads the tokenizer model.
-     * @return Tokenizer model
-     * @throws FileNotFoundException
-     */
-    private static TokenizerModel loadTokenizerModel() throws FileNotFoundException {
-    	InputStream modelIn = new FileInputStream("src/main/resources/models/onlp/opensource/en-token.bin");
-        TokenizerModel model = null;
-
-        try {
-            model = new TokenizerModel(modelIn);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                modelIn.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        return model;
-    }
+        Metrics.Sample sample = Metrics.timer("preprocess").start();
 
-    /**
-     * Splits the text into sentences.
-     * @param text Text to be split
-     * @param model Sentence model
-     * @return Array of sentences
-     */
-    private static String[] detectSentences(String text, SentenceModel model) {
-        SentenceDetectorME sentenceDetector = new SentenceDetectorME(model);
-        return sentenceDetector.sentDetect(text);
-    }
+        System.out.println("Generating " + reports.size() + " unannotated training files ...");
+        preprocessor.generateTokenizedReports(reports, threads);
 
-    /**
-     * Converts the text into single tokens.
-     * @param input Sentence as string
-     * @param model Tokenizer model
-     * @return Array of tokens
-     */
-    private static String[] tokenizeSentence(String input, TokenizerModel model) {
-        Tokenizer tokenizer = new TokenizerME(model);
-        return tokenizer.tokenize(input);
+        System.out.println("Duration: " + sample.stop() / 1000000 + " ms");
+        System.out.println("-----------------------------------------------");
     }
 
     /**
      * Trains the model and generates a model file on the hard-drive.
-     * @param annotations File with training data
-     * @param global True = global cross-validation
-     *               False = sector-specific cross-validation
+     * The samples of the training files are taken from the shared corpus cache, so each file is parsed only once per run.
+     * @param trainFiles Files with training data
+     * @param evalFold Fold currently being evaluated, keeps the model files of concurrently trained folds apart
+     * @param domain Domain of the sector-specific cross-validation, null = global cross-validation
      * @return Trained model
      * @throws IOException
      */
-    private static File trainModel(File annotations, boolean global) throws IOException {
-        Charset charset = Charset.forName("UTF-8");
+    private static File trainModel(File[] trainFiles, int evalFold, String domain) throws IOException {
         ObjectStream<NameSample> sampleStream;
         TokenNameFinderModel model = null;
         BufferedOutputStream modelOut;
         File out;
 
-        if (global) {
-            out = new File("src/main/resources/models/onlp/custom/global-tmp.bin");
+        if (domain == null) {
+            out = new File("src/main/resources/models/onlp/custom/global-" + evalFold + ".bin");
         } else {
-            out = new File("src/main/resources/models/onlp/custom/sector-tmp.bin");
+            // one directory per domain, so the models of a domain are not overwritten by the next domain
+            out = new File("src/main/resources/models/onlp/custom/domain/" + domain + "/sector-" + evalFold + ".bin");
+            out.getParentFile().mkdirs();
         }
 
-        ObjectStream<String> lineStream = new PlainTextByLineStream(new FileInputStream(annotations), charset);
-        sampleStream = new NameSampleDataStream(lineStream);
+        sampleStream = NameSampleCorpus.stream(trainFiles);
 
+        Metrics.Sample training = Metrics.timer("onlp.train", evalFold).start();
         try {
             model = NameFinderME.train("en", "products", sampleStream, Collections.<String,Object>emptyMap());
         } finally {
             sampleStream.close();
+            training.stop();
         }
 
-        Files.delete(annotations.toPath());
-
         modelOut = null;
+        Metrics.Sample serializing = Metrics.timer("onlp.serialize", evalFold).start();
         try {
             modelOut = new BufferedOutputStream(new FileOutputStream(out));
             model.serialize(modelOut);
         } finally {
             if (modelOut != null)
                 modelOut.close();
+            serializing.stop();
         }
 
         return out;
     }
 
     /**
-     * Creates the training file for a specific fold of the cross-validation by stitching together all the separate training files.
-     * @param files Training files that need to be combined
-     * @param evalFold Fold currently being evaluated
-     * @return Generated training file
+     * Creates a batch tagger for a trained name finder model. Every worker keeps its own NameFinderME, whose adaptive
+     * data is cleared after each sentence, since the sentences of a batch come from different documents.
+     * @param model Name finder model
+     * @param threads Number of worker threads
+     * @param batchSize Maximum number of sentences tagged in one batch
+     * @param batchDelay Time (in ms) a worker waits for a batch to fill up
+     * @return Batch tagger (to be closed)
      */
-    private static File createTrainingFile(File[] files, int evalFold) {
-        System.out.println("Evaluating fold " + evalFold);
-        System.out.println();
-        String line;
-
-        File trainFile = new File("src/main/resources/training/onlp/tmp.train");
-
-        for (File f : files) {
-            try (BufferedReader br = new BufferedReader(new FileReader(f)); BufferedWriter bw = new BufferedWriter(new FileWriter(trainFile, true))) {
-                while ((line = br.readLine()) != null) {
-                    bw.write(line);
-                    bw.newLine();
+    public static BatchTagger batchTagger(TokenNameFinderModel model, int threads, int batchSize, long batchDelay) {
+        return new BatchTagger(() -> {
+            NameFinderME nameFinder = new NameFinderME(model);
+            return tokens -> {
+                try {
+                    return nameFinder.find(tokens);
+                } finally {
+                    nameFinder.clearAdaptiveData();
                 }
-                bw.newLine();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        return trainFile;
+            };
+        }, threads, batchSize, batchDelay);
     }
 
     /**
@@ -215,37 +140,38 @@ class OpenNLP {
      * @param testFiles Gold standard
      * @param trainFiles Separate training files
      * @param evalFold Fold currently being evaluated
-     * @param global True = global cross-validation
-     *               False = sector-specific cross-validation
+     * @param domain Domain of the sector-specific cross-validation, null = global cross-validation
      * @return Array of results, one for each test file
      * @throws IOException
      */
-    public static FMeasure[] evaluate(File[] testFiles, File[] trainFiles, int evalFold, boolean global) throws IOException {
-        ObjectStream<String> lineStream;
-        NameSampleDataStream testStream;
+    public static FMeasure[] evaluate(File[] testFiles, File[] trainFiles, int evalFold, String domain) throws IOException {
         TokenNameFinderEvaluator evaluator;
         ArrayList<FMeasure> measures = new ArrayList<>();
 //        Double pre = 0.0;
 //        Double rec = 0.0;
 //        Double fm = 0.0;
 
-        if (global) {
-            TokenNameFinderModel nameFinderModel = new TokenNameFinderModel(trainModel(createTrainingFile(trainFiles, evalFold), true));
-            evaluator = new TokenNameFinderEvaluator(new NameFinderME(nameFinderModel));
-        } else {
-            TokenNameFinderModel nameFinderModel = new TokenNameFinderModel(trainModel(createTrainingFile(trainFiles, evalFold), false));
-            evaluator = new TokenNameFinderEvaluator(new NameFinderME(nameFinderModel));
-        }
+        System.out.println("Evaluating fold " + evalFold);
+        System.out.println();
+
+        TokenNameFinderModel nameFinderModel = new TokenNameFinderModel(trainModel(trainFiles, evalFold, domain));
+        evaluator = new TokenNameFinderEvaluator(new NameFinderME(nameFinderModel));
 
         for (File f : testFiles) {
-            System.out.println("--------------------------------------------------------------------------");
-            System.out.println("Evaluating " + f.getName());
-            lineStream = new PlainTextByLineStream(new FileInputStream(f), "UTF-8");
-            testStream = new NameSampleDataStream(lineStream);
-            evaluator.evaluate(testStream);
+            Metrics.Sample evaluating = Metrics.timer("onlp.evaluate", evalFold).start();
+            try {
+                evaluator.evaluate(NameSampleCorpus.stream(new File[]{f}));
+            } finally {
+                evaluating.stop();
+            }
             measures.add(evaluator.getFMeasure());
-            System.out.println();
-            System.out.println(evaluator.getFMeasure().toString());
+            // folds may be evaluated concurrently, keep the block of each file together
+            synchronized (System.out) {
+                System.out.println("--------------------------------------------------------------------------");
+                System.out.println("Evaluating " + f.getName() + " (fold " + evalFold + ")");
+                System.out.println();
+                System.out.println(evaluator.getFMeasure().toString());
+            }
         }
 
         /*for (FMeasure m : measures) {
@@ -263,4 +189,42 @@ class OpenNLP {
 
         return measures.toArray(new FMeasure[measures.size()]);
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs the cross-validation with every fold being trained and evaluated as a separate task on the given executor.
+     * Each fold is trained on all other folds and evaluated against its own files.
+     * @param folds Files of each fold
+     * @param firstFold Number of the first fold (used for naming the temporary files and the output)
+     * @param domain Domain of the sector-specific cross-validation, null = global cross-validation
+     * @param executor Executor running the folds
+     * @return Results of all folds in fold order, one for each test file
+     */
+    public static List<FMeasure> crossValidate(File[][] folds, int firstFold, String domain, ExecutorService executor) {
+        List<Future<FMeasure[]>> results = new ArrayList<>();
+        List<FMeasure> measures = new ArrayList<>();
+
+        for (int j=0; j<folds.length; j++) {
+            File[] testFiles = folds[j];
+            ArrayList<File> trainFiles = new ArrayList<>();
+            for (File[] f : folds) {
+                if (!Arrays.equals(f, testFiles)) {
+                    Collections.addAll(trainFiles, f);
+                }
+            }
+            int evalFold = firstFold + j;
+            results.add(executor.submit(() -> evaluate(testFiles, trainFiles.toArray(new File[trainFiles.size()]), evalFold, domain)));
+        }
+
+        for (Future<FMeasure[]> result : results) {
+            try {
+                Collections.addAll(measures, result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+        return measures;
+    }
+}
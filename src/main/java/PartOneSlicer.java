@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cuts the annotated region out of the text of a 10-K report: Part I from the heading "Item 1. Business" up to the
+ * heading "Item 1A", "Item 1B" or "Item 2", whichever comes first.
+ * The same headings appear in the table of contents, so a section which is shorter than the minimum length is taken
+ * for the table of contents and the search continues behind it. References to an item inside the text
+ * (e.g. "see Item 1A. Risk Factors") are not taken for headings.
+ * Works on a stream of text blocks and only keeps the text around the current search position.
+ */
+class PartOneSlicer implements TextSource {
+    private static final String space = "[\\s\\u00A0]{0,3}";
+    private static final Pattern startHeading = Pattern.compile("\\bitems?" + space + "1(?![0-9a-z])" + space
+            + "[.:\\-\\u2013\\u2014]?" + space + "(description" + space + "of" + space + "(the" + space + ")?)?business",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern endHeading = Pattern.compile("\\bitems?" + space + "(1a|1b|2)(?![0-9a-z])",
+            Pattern.CASE_INSENSITIVE);
+    private static final Set<String> referenceWords = new HashSet<>(Arrays.asList(
+            "see", "in", "under", "and", "or", "of", "to", "also", "per", "within", "at", "from", "including", "with"));
+    /** Upper bound for the length of a heading; a heading is only matched once that much text follows its start */
+    private static final int margin = 128;
+    /** Text kept in front of the search position to decide whether a match is a heading or a reference */
+    private static final int context = 64;
+
+    private final TextSource source;
+    private final int minLength;
+    private final StringBuilder window = new StringBuilder();
+    private int searchFrom = 0;
+    private int sectionStart = 0;
+    private int emitted = 0;
+    private boolean inSection = false;
+    private boolean committed = false;
+    private boolean found = false;
+    private boolean done = false;
+
+    /**
+     * @param source Text of the report
+     * @param minLength Minimum length (in characters) of Item 1, shorter sections are taken for the table of contents
+     */
+    public PartOneSlicer(TextSource source, int minLength) {
+        this.source = source;
+        this.minLength = minLength;
+    }
+
+    /**
+     * @param source Text of the report
+     */
+    public PartOneSlicer(TextSource source) {
+        this(source, 1000);
+    }
+
+    /**
+     * Cuts Item 1 out of the text of a whole report.
+     * @param text Text of the report
+     * @return Text of Item 1 or null if the heading was not found
+     */
+    public static String slice(String text) {
+        Iterator<String> blocks = Collections.singleton(text).iterator();
+        PartOneSlicer slicer = new PartOneSlicer(() -> blocks.hasNext() ? blocks.next() : null);
+        StringBuilder section = new StringBuilder();
+        String block;
+
+        try {
+            while ((block = slicer.nextBlock()) != null) {
+                section.append(block);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return slicer.isFound() ? section.toString() : null;
+    }
+
+    /**
+     * @return True if the heading of Item 1 was found in the text read so far
+     */
+    public boolean isFound() {
+        return found;
+    }
+
+    @Override
+    public String nextBlock() throws IOException {
+        while (!done) {
+            String block = source.nextBlock();
+            if (block == null) {
+                done = true;
+            } else {
+                window.append(block);
+            }
+            String text = scan(done);
+            if (!text.isEmpty()) {
+                return text;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks for the headings in the text read so far and returns the part of Item 1 which is certain by now.
+     */
+    private String scan(boolean eof) {
+        int limit = eof ? window.length() : window.length() - margin;
+        StringBuilder text = new StringBuilder();
+
+        while (!done) {
+            if (!inSection) {
+                int start = find(startHeading, limit);
+                if (start < 0) {
+                    break;
+                }
+                inSection = true;
+                sectionStart = start;
+            } else {
+                int end = find(endHeading, limit);
+                if (end >= 0 && !committed && end - sectionStart < minLength) {
+                    // table of contents
+                    inSection = false;
+                    continue;
+                }
+                if (end >= 0) {
+                    text.append(window, Math.max(sectionStart, emitted), end);
+                    found = true;
+                    done = true;
+                } else if (committed || limit - sectionStart >= minLength) {
+                    committed = true;
+                    found = true;
+                    text.append(window, Math.max(sectionStart, emitted), Math.max(limit, emitted));
+                    emitted = Math.max(limit, emitted);
+                }
+                break;
+            }
+        }
+        if (eof && !done) {
+            if (inSection) {
+                // no end heading up to the end of the report
+                text.append(window, Math.max(sectionStart, emitted), window.length());
+                found = true;
+            }
+            done = true;
+        }
+        if (done) {
+            window.setLength(0);
+            return text.toString();
+        }
+
+        int keep = searchFrom;
+        if (inSection) {
+            keep = Math.min(keep, committed ? emitted : sectionStart);
+        }
+        int cut = Math.max(0, keep - context);
+        window.delete(0, cut);
+        searchFrom -= cut;
+        sectionStart -= cut;
+        emitted = Math.max(0, emitted - cut);
+        return text.toString();
+    }
+
+    /**
+     * Finds the next heading starting before the limit and moves the search position behind it.
+     * @return Start of the heading or -1 if there is none
+     */
+    private int find(Pattern heading, int limit) {
+        Matcher m = heading.matcher(window);
+        int from = searchFrom;
+
+        while (from < limit && m.find(from) && m.start() < limit) {
+            if (isHeading(m.start())) {
+                searchFrom = m.end();
+                return m.start();
+            }
+            from = m.start() + 1;
+        }
+        searchFrom = Math.max(searchFrom, limit);
+        return -1;
+    }
+
+    /**
+     * A match is taken for a reference if it is preceded by punctuation or a word which introduces references.
+     */
+    private boolean isHeading(int start) {
+        int i = start;
+        while (i > 0 && isSpace(window.charAt(i - 1))) {
+            i--;
+        }
+        if (i == 0) {
+            return true;
+        }
+        if (",(\"'\u201C\u2018".indexOf(window.charAt(i - 1)) >= 0) {
+            return false;
+        }
+        int word = i;
+        while (word > 0 && Character.isLetter(window.charAt(word - 1))) {
+            word--;
+        }
+        return !referenceWords.contains(window.substring(word, i).toLowerCase());
+    }
+
+    private static boolean isSpace(char c) {
+        return Character.isWhitespace(c) || c == '\u00A0';
+    }
+}
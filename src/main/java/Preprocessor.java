@@ -0,0 +1,312 @@
+import opennlp.tools.sentdetect.SentenceDetectorME;
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.tokenize.TokenizerME;
+import opennlp.tools.tokenize.TokenizerModel;
+import opennlp.tools.util.Span;
+import opennlp.tools.util.StringUtil;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pre-processing of reports with the OpenNLP sentence detector and tokenizer.
+ * The models are loaded only once per process. SentenceDetectorME and TokenizerME are not thread-safe,
+ * so every thread keeps its own detector and tokenizer, which are reused for all sentences and reports.
+ */
+class Preprocessor {
+    /** Text (in characters) kept back for sentence detection in streaming mode before it is written anyway */
+    private static final int maxPendingText = 1 << 20;
+    // timed per report or block, not per sentence: the metrics of a call cost more than tokenizing a short sentence
+    private static final Metrics.Timer splitTimer = Metrics.timer("preprocess.split");
+    private static final Metrics.Counter splitSentences = Metrics.counter("preprocess.split.sentences");
+    private static final Metrics.Timer tokenizeTimer = Metrics.timer("preprocess.tokenize");
+    private static final Metrics.Counter tokenizeTokens = Metrics.counter("preprocess.tokenize.tokens");
+    private static Preprocessor instance;
+    private final ThreadLocal<SentenceDetectorME> sentenceDetector;
+    private final ThreadLocal<TokenizerME> tokenizer;
+
+    private Preprocessor(SentenceModel sm, TokenizerModel tm) {
+        sentenceDetector = ThreadLocal.withInitial(() -> new SentenceDetectorME(sm));
+        tokenizer = ThreadLocal.withInitial(() -> new TokenizerME(tm));
+    }
+
+    /**
+     * Returns the shared pre-processor, loading the sentence and tokenizer models on first use.
+     * @return Pre-processor
+     * @throws IOException
+     */
+    public static synchronized Preprocessor getInstance() throws IOException {
+        if (instance == null) {
+            instance = new Preprocessor(loadSentenceModel(), loadTokenizerModel());
+        }
+        return instance;
+    }
+
+    /**
+     * Splits the text into sentences.
+     * @param text Text to be split
+     * @return Array of sentences
+     */
+    public String[] detectSentences(String text) {
+        Metrics.Sample timer = splitTimer.start();
+        try {
+            String[] sentences = sentenceDetector.get().sentDetect(text);
+            splitSentences.add(sentences.length);
+            return sentences;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Converts the sentence into single tokens (not timed, see {@link #tokenize(String[])}).
+     * @param sentence Sentence as string
+     * @return Array of tokens
+     */
+    public String[] tokenize(String sentence) {
+        return tokenizer.get().tokenize(sentence);
+    }
+
+    /**
+     * Converts every sentence into single tokens.
+     * @param sentences Sentences of a report
+     * @return Array of tokens for each sentence
+     */
+    public String[][] tokenize(String[] sentences) {
+        String[][] tokens = new String[sentences.length][];
+        long count = 0;
+        Metrics.Sample timer = tokenizeTimer.start();
+        try {
+            for (int i=0; i<sentences.length; i++) {
+                tokens[i] = tokenize(sentences[i]);
+                count += tokens[i].length;
+            }
+        } finally {
+            timer.stop();
+        }
+        tokenizeTokens.add(count);
+        return tokens;
+    }
+
+    /**
+     * 1. Splits the text into sentences
+     * 2. Generates tokenized form of the text separated by a blank space character between each token
+     * @param text Text to be tokenized
+     * @param output File with tokenized text
+     */
+    public void generateTokenizedReport(String text, File output) {
+        try {
+            writeTokenizedReport(tokenize(detectSentences(text)), output);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Generates the tokenized form of a report while its text is still being extracted.
+     * The last sentence of every block may continue in the next block, so it is kept back and detected again
+     * together with the next block. The detector looks at the words around a possible sentence end, so a sentence is
+     * only written once the word following it is complete, and the sentence written last is kept as context
+     * (without being written twice).
+     * Only a single sentence longer than the pending limit is written before it ends. The sentence ends decided
+     * before are kept, so that only the new block and the end of the unfinished sentence are detected again.
+     * @param text Blocks of report text
+     * @param output File with tokenized text
+     * @throws IOException
+     */
+    public void generateTokenizedReport(TextSource text, File output) throws IOException {
+        SentenceDetectorME detector = sentenceDetector.get();
+        StringBuilder pending = new StringBuilder();
+        int context = 0;
+        // sentences of the pending text decided before the unfinished last one, which starts at `unfinished` and holds
+        // no sentence end up to `decided` (-1 = detect the whole pending text); detection starts again at `rescan`
+        List<Span> decidedSpans = new ArrayList<>();
+        int unfinished = -1;
+        int decided = 0;
+        int rescan = 0;
+        String block;
+
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"))) {
+            while ((block = text.nextBlock()) != null) {
+                pending.append(block);
+                String current = pending.toString();
+                Span[] spans = unfinished < 0 ? detectSentences(detector, current)
+                        : detectSentences(detector, current, decidedSpans, unfinished, decided, rescan);
+                unfinished = -1;
+                if (current.length() > maxPendingText) {
+                    writeSentences(current, spans, context, spans.length, out);
+                    pending.setLength(0);
+                    context = 0;
+                } else {
+                    // a sentence end is only final once the word behind it and the whitespace following that word
+                    // have been read completely, i.e. the next sentence must start before the last word of the text
+                    int lastWord = previousWord(current, current.length());
+                    int complete = spans.length - 1;
+                    while (complete > 0 && spans[complete].getStart() >= lastWord) {
+                        complete--;
+                    }
+                    int start = 0;
+                    if (complete > 0) {
+                        writeSentences(current, spans, context, complete, out);
+                        start = spans[complete - 1].getStart();
+                        pending.setLength(0);
+                        pending.append(current, start, current.length());
+                        context = spans[complete].getStart() - start;
+                    }
+                    // possible ends in the word before the last word depend on the last word, so they are detected
+                    // again next time, with the word before them as their context
+                    int wordBefore = previousWord(current, lastWord);
+                    int contextWord = previousWord(current, wordBefore);
+                    if (spans.length > 0 && spans[spans.length - 1].getStart() < contextWord) {
+                        decidedSpans.clear();
+                        for (int i=Math.max(complete - 1, 0); i<spans.length - 1; i++) {
+                            decidedSpans.add(new Span(spans[i].getStart() - start, spans[i].getEnd() - start));
+                        }
+                        unfinished = spans[spans.length - 1].getStart() - start;
+                        decided = wordBefore - start;
+                        rescan = contextWord - start;
+                    }
+                }
+            }
+            String current = pending.toString();
+            Span[] spans = detectSentences(detector, current);
+            writeSentences(current, spans, context, spans.length, out);
+        }
+    }
+
+    /**
+     * Detects the sentences of the pending text in streaming mode (the sentences are counted once written).
+     */
+    private static Span[] detectSentences(SentenceDetectorME detector, String text) {
+        Metrics.Sample timer = splitTimer.start();
+        try {
+            return detector.sentPosDetect(text);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Detects the sentences of the pending text again from the given index on, taking over the sentences decided
+     * before. The text of the unfinished sentence up to the decided index is known to hold no sentence end, so the
+     * sentence found first after it starts where the unfinished sentence starts.
+     */
+    private static Span[] detectSentences(SentenceDetectorME detector, String text, List<Span> decidedSpans,
+                                          int unfinished, int decided, int rescan) {
+        List<Span> spans = new ArrayList<>(decidedSpans);
+        for (Span span : detectSentences(detector, text.substring(rescan))) {
+            if (span.getEnd() + rescan <= decided) {
+                // the end was detected without the word before it as context and decided as none before
+                continue;
+            }
+            int start = spans.size() == decidedSpans.size() ? unfinished : span.getStart() + rescan;
+            spans.add(new Span(start, span.getEnd() + rescan));
+        }
+        if (spans.size() == decidedSpans.size()) {
+            return detectSentences(detector, text);
+        }
+        return spans.toArray(new Span[spans.size()]);
+    }
+
+    /**
+     * @return Start of the word in front of the given index, skipping the whitespace before the index
+     */
+    private static int previousWord(String text, int index) {
+        while (index > 0 && StringUtil.isWhitespace(text.charAt(index - 1))) {
+            index--;
+        }
+        while (index > 0 && !StringUtil.isWhitespace(text.charAt(index - 1))) {
+            index--;
+        }
+        return index;
+    }
+
+    /**
+     * Tokenizes and writes the detected sentences up to the given index which lie behind the already written context.
+     */
+    private void writeSentences(String text, Span[] spans, int context, int end, BufferedWriter out) throws IOException {
+        List<String> sentences = new ArrayList<>();
+        for (int i=0; i<end; i++) {
+            if (spans[i].getEnd() > context) {
+                int start = Math.max(spans[i].getStart(), context);
+                sentences.add(text.substring(start, spans[i].getEnd()));
+            }
+        }
+        for (String[] tokens : tokenize(sentences.toArray(new String[sentences.size()]))) {
+            writeSentence(tokens, out);
+        }
+        splitSentences.add(sentences.size());
+    }
+
+    /**
+     * Writes the tokenized report, one sentence per line with a blank space character between each token.
+     * @param tokens Array of tokens for each sentence
+     * @param output File with tokenized text
+     * @throws IOException
+     */
+    public static void writeTokenizedReport(String[][] tokens, File output) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"))) {
+            for (String[] sentence : tokens) {
+                writeSentence(sentence, out);
+            }
+        }
+    }
+
+    private static void writeSentence(String[] tokens, BufferedWriter out) throws IOException {
+        out.write(String.join(" ", tokens).trim());
+        out.newLine();
+    }
+
+    /**
+     * Generates the tokenized form of many reports at once, processing the reports in parallel.
+     * @param reports Reports as plain text mapped by the file they are written to
+     * @param threads Number of reports processed at the same time
+     */
+    public void generateTokenizedReports(Map<File, String> reports, int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+
+        for (Map.Entry<File, String> report : reports.entrySet()) {
+            results.add(executor.submit(() -> generateTokenizedReport(report.getValue(), report.getKey())));
+        }
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Loads the sentence model.
+     * @return Sentence model
+     * @throws IOException
+     */
+    private static SentenceModel loadSentenceModel() throws IOException {
+        try (InputStream modelIn = new FileInputStream("src/main/resources/models/onlp/opensource/en-sent.bin")) {
+            return new SentenceModel(modelIn);
+        }
+    }
+
+    /**
+     * Loads the tokenizer model.
+     * @return Tokenizer model
+     * @throws IOException
+     */
+    private static TokenizerModel loadTokenizerModel() throws IOException {
+        try (InputStream modelIn = new FileInputStream("src/main/resources/models/onlp/opensource/en-token.bin")) {
+            return new TokenizerModel(modelIn);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plan of steps which {@link Main} runs one after another in the same JVM without asking, so that parsed training
+ * files, loaded models and compiled code are shared by the steps. A step is a choice of the menu with its settings.
+ * The plan is given on the command line (e.g. "java Main 2 4 5") or as a text file ("java Main --plan file") with one
+ * step per line:
+ * <pre>
+ * # step [setting=value ...]
+ * 2 in=src/main/resources/training/conll threads=4
+ * 4
+ * 5
+ * 9 nlp.crf.sweepBudget=10
+ * </pre>
+ * Settings: in = directory of the exported WebAnno files (steps 0, 2, 3-1, 3-2, 6 and 10), threads = number of files
+ * converted or folds trained at the same time (like -Dnlp.threads), and every nlp.* system property, which is set
+ * while the step runs. A step whose outputs are up to date with its inputs is skipped unless --force is given; steps
+ * without files as output (statistics, evaluation, service) always run.
+ */
+class RunPlan {
+    private static final List<String> choices = Arrays.asList("0", "1", "1-2", "2", "3-1", "3-2", "4", "5", "6", "7",
+            "8", "9", "10", "11", "12", "13", "14", "15", "16", "17", "18", "19", "20");
+    private static final File defaultInput = new File("src/main/resources/training/conll");
+    private static final FileFilter conllFilter = new WildcardFileFilter("*.conll");
+
+    /**
+     * Menu choice with its settings.
+     */
+    static class Step {
+        final String choice;
+        private final Map<String, String> settings;
+
+        Step(String choice, Map<String, String> settings) {
+            this.choice = choice;
+            this.settings = settings;
+        }
+
+        /**
+         * @return Directory of the exported WebAnno files
+         */
+        File input() {
+            return settings.containsKey("in") ? new File(settings.get("in")) : defaultInput;
+        }
+
+        /**
+         * @return True if the step trains models and saves them (cross-validation, feature-set sweep, domains)
+         */
+        boolean trainsModels() {
+            return Arrays.asList("5", "8", "9", "12", "13", "14", "15", "16").contains(choice);
+        }
+
+        /**
+         * Sets the system properties of the step.
+         * @return Previous values of the properties (null = not set), to be restored after the step
+         */
+        Map<String, String> apply() {
+            Map<String, String> previous = new HashMap<>();
+            for (Map.Entry<String, String> e : settings.entrySet()) {
+                String property = e.getKey().equals("threads") ? "nlp.threads" : e.getKey();
+                if (property.startsWith("nlp.")) {
+                    previous.put(property, System.setProperty(property, e.getValue()));
+                }
+            }
+            return previous;
+        }
+
+        /**
+         * @param previous Values returned by {@link #apply()}
+         */
+        static void restore(Map<String, String> previous) {
+            for (Map.Entry<String, String> e : previous.entrySet()) {
+                if (e.getValue() == null) {
+                    System.clearProperty(e.getKey());
+                } else {
+                    System.setProperty(e.getKey(), e.getValue());
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(choice);
+            for (Map.Entry<String, String> e : settings.entrySet()) {
+                sb.append(' ').append(e.getKey()).append('=').append(e.getValue());
+            }
+            return sb.toString();
+        }
+    }
+
+    private final List<Step> steps = new ArrayList<>();
+    private boolean force = false;
+
+    private RunPlan() {
+    }
+
+    /**
+     * Reads the plan from the command line: steps (each a choice, optionally followed by its settings), --plan file
+     * to read steps from a plan file and --force to run up-to-date steps as well.
+     * @param args Command line arguments
+     * @return Plan
+     * @throws IOException If the plan file cannot be read or a step or setting is unknown
+     */
+    public static RunPlan parse(String[] args) throws IOException {
+        RunPlan plan = new RunPlan();
+        List<String> line = new ArrayList<>();
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("--force")) {
+                plan.force = true;
+            } else if (args[i].equals("--plan")) {
+                if (i + 1 == args.length) {
+                    throw new IOException("--plan needs a plan file");
+                }
+                plan.addStep(line, "command line");
+                line.clear();
+                plan.load(new File(args[++i]));
+            } else if (choices.contains(args[i])) {
+                plan.addStep(line, "command line");
+                line.clear();
+                line.add(args[i]);
+            } else {
+                line.add(args[i]);
+            }
+        }
+        plan.addStep(line, "command line");
+        return plan;
+    }
+
+    private void load(File file) throws IOException {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                addStep(Arrays.asList(line.split("\\s+")), file.getPath());
+            }
+        }
+    }
+
+    private void addStep(List<String> words, String source) throws IOException {
+        if (words.isEmpty()) {
+            return;
+        }
+        if (!choices.contains(words.get(0))) {
+            throw new IOException("Unknown step in " + source + ": " + words.get(0));
+        }
+        if (!steps.isEmpty() && steps.get(steps.size() - 1).choice.equals("17")) {
+            throw new IOException("Step 17 serves until the process is stopped and must be the last step");
+        }
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (String setting : words.subList(1, words.size())) {
+            int eq = setting.indexOf('=');
+            String key = eq < 0 ? setting : setting.substring(0, eq);
+            if (eq < 0 || !(key.equals("in") || key.equals("threads") || key.startsWith("nlp."))) {
+                throw new IOException("Invalid setting of step " + words.get(0) + " in " + source + ": " + setting);
+            }
+            settings.put(key, setting.substring(eq + 1));
+        }
+        steps.add(new Step(words.get(0), settings));
+    }
+
+    /**
+     * @return Steps in the order they are run
+     */
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * @return True if up-to-date steps are run as well
+     */
+    public boolean isForce() {
+        return force;
+    }
+
+    /**
+     * Checks whether a step would only write what its outputs already hold. The conversion of one format is up to
+     * date if the manifest of its output directory records exactly the current exports, unchanged (see
+     * {@link WebAnno#isUpToDate(File[], WebAnno.Format)}); the conversion of all formats if that holds for every format
+     * and the binary corpus exists (an incremental conversion deletes it); the folds if their manifest is up to date with the
+     * annotated files and the settings of the step (see {@link FoldPlanner#isUpToDate(File, File, int, Long)}).
+     * @param step Step
+     * @return True if the step can be skipped
+     */
+    public static boolean isUpToDate(Step step) {
+        File[] in = step.input().listFiles(conllFilter);
+        switch (step.choice) {
+            case "0":
+                if (in == null || in.length == 0 || !new File(WebAnno.corpusFile).isFile()) {
+                    return false;
+                }
+                for (WebAnno.Format format : WebAnno.Format.values()) {
+                    if (!WebAnno.isUpToDate(in, format)) {
+                        return false;
+                    }
+                }
+                return true;
+            case "2":
+                return in != null && WebAnno.isUpToDate(in, WebAnno.Format.OPENNLP);
+            case "6":
+                return in != null && WebAnno.isUpToDate(in, WebAnno.Format.STANFORD_FULL);
+            case "10":
+                return in != null && WebAnno.isUpToDate(in, WebAnno.Format.STANFORD_ANNO);
+            case "4":
+                return foldsUpToDate("src/main/resources/training/onlp");
+            case "7":
+                return foldsUpToDate("src/main/resources/training/snlp/full");
+            case "11":
+                return foldsUpToDate("src/main/resources/training/snlp/anno");
+            default:
+                return false;
+        }
+    }
+
+    private static boolean foldsUpToDate(String dir) {
+        return FoldPlanner.isUpToDate(new File(dir, "annotated"), new File(dir, "folds"), FoldPlanner.configuredFolds(),
+                FoldPlanner.configuredSeed());
+    }
+}
@@ -0,0 +1,105 @@
+import edu.stanford.nlp.ie.crf.CRFClassifier;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.Word;
+import edu.stanford.nlp.sequences.SeqClassifierFlags;
+import edu.stanford.nlp.util.Index;
+import opennlp.tools.util.Span;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stanford classifier which can be shared by threads tagging at the same time. Tagging adds lowercase words to the
+ * known words of the classifier (up to a limit), which a loaded classifier keeps in a plain HashSet, so they are
+ * moved into a concurrent set. Everything else classification uses is only read.
+ */
+class SharedCRFClassifier extends CRFClassifier<CoreLabel> {
+
+    private SharedCRFClassifier() {
+        super(new SeqClassifierFlags());
+    }
+
+    /**
+     * @param model Saved classifier (*.ser.gz)
+     * @return Loaded classifier
+     * @throws IOException
+     */
+    public static SharedCRFClassifier load(File model) throws IOException {
+        SharedCRFClassifier classifier = new SharedCRFClassifier();
+        try {
+            classifier.loadClassifier(model);
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Not a CRF classifier: " + model.getPath(), e);
+        }
+        Set<String> known = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        if (classifier.knownLCWords != null) {
+            known.addAll(classifier.knownLCWords);
+        }
+        classifier.knownLCWords = known;
+        return classifier;
+    }
+
+    /**
+     * Estimates the heap the classifier occupies from its largest parts: the weights (one array per feature), the
+     * feature index (each feature name in a list and a hash map) and the known lowercase words.
+     * @return Estimated size in bytes
+     */
+    public long estimateHeap() {
+        double[][] weights = CachingCRFClassifier.field(this, "weights");
+        Index<String> features = CachingCRFClassifier.field(this, "featureIndex");
+        long bytes = 0;
+        for (double[] w : weights) {
+            bytes += 16 + 8L * w.length + 8;
+        }
+        for (String feature : features) {
+            bytes += stringBytes(feature) + 8 + 64;
+        }
+        for (String word : knownLCWords) {
+            bytes += stringBytes(word) + 64;
+        }
+        return bytes;
+    }
+
+    /**
+     * Size of a String with its char array (Java 8, compressed references).
+     */
+    static long stringBytes(String s) {
+        return 24 + 16 + 2L * s.length();
+    }
+
+    /**
+     * Tags a sentence and joins runs of tokens with the same label (other than the background label) into entities.
+     * @param tokens Tokens of the sentence
+     * @return Entities (token spans with the label as type)
+     */
+    public Span[] tag(String[] tokens) {
+        List<Word> words = new ArrayList<>(tokens.length);
+        for (String token : tokens) {
+            words.add(new Word(token));
+        }
+        List<CoreLabel> labels = classifySentence(words);
+        String background = backgroundSymbol();
+        List<Span> spans = new ArrayList<>();
+        int start = -1;
+        String type = null;
+
+        for (int i=0; i<=labels.size(); i++) {
+            String label = i < labels.size() ? labels.get(i).get(CoreAnnotations.AnswerAnnotation.class) : background;
+            if (start >= 0 && !label.equals(type)) {
+                spans.add(new Span(start, i, type));
+                start = -1;
+            }
+            if (start < 0 && !label.equals(background)) {
+                start = i;
+                type = label;
+            }
+        }
+        return spans.toArray(new Span[spans.size()]);
+    }
+}
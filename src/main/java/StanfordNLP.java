@@ -1,10 +1,21 @@
 import edu.stanford.nlp.ie.crf.CRFClassifier;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.sequences.DocumentReaderAndWriter;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * NER module from the Stanford NLP library.
@@ -13,6 +24,19 @@ import java.util.Properties;
 
 class StanfordNLP {
 
+    /**
+     * Sets the properties for the model training with the training profile on top of the feature set
+     * @param trainFileList List of training files
+     * @param set Feature set
+     * @param profile Training profile (threads, optimizer, convergence)
+     * @return Properties object containing a list of properties
+     */
+    public static Properties setProperties(String trainFileList, int set, CrfTrainingProfile profile) {
+        Properties props = setProperties(trainFileList, set);
+        profile.apply(props);
+        return props;
+    }
+
     /**
      * Sets the properties for the model training
      * @param trainFileList List of training files
@@ -274,81 +298,417 @@ class StanfordNLP {
     }
 
     /**
-     * Trains the classifier
-     * @param props Properties for training
-     * @param featureSet Feature set
-     * @param evalFold Cross-validation fold the model is trained for
-     * @param crossValidation Cross-validation mode
-     * @param annoOnly Use annotated sentences in training data only
-     * @return Trained classifier
+     * Entity counts of an evaluation per label (true positives, false positives, false negatives), counted like the
+     * evaluation of CRFClassifier -testFile, together with the cost of training the evaluated classifier.
      */
-    public static CRFClassifier trainClassifier(Properties props, int featureSet, int evalFold, boolean crossValidation, boolean annoOnly, boolean domain, String domainName) {
-        CRFClassifier classifier = new CRFClassifier(props);
-        classifier.train();
-        if (crossValidation) {
-            if (annoOnly && !domain) {
-                classifier.serializeClassifier("src/main/resources/models/snlp/cross/anno/" + evalFold + "-eval.ser.gz");
-                classifier.serializeClassifier("D:/java/stanford-ner/classifiers/cross/anno/" + evalFold + "-eval.ser.gz");
+    static class Evaluation {
+        private final Counter<String> tp = new ClassicCounter<>();
+        private final Counter<String> fp = new ClassicCounter<>();
+        private final Counter<String> fn = new ClassicCounter<>();
+        private int iterations = 0;
+        private long trainingTime = 0;
+        private long seededWeights = 0;
+        private long weights = 0;
+
+        /**
+         * Adds the counts of another evaluation, e.g. of another fold.
+         * @param other Evaluation
+         */
+        public void add(Evaluation other) {
+            tp.addAll(other.tp);
+            fp.addAll(other.fp);
+            fn.addAll(other.fn);
+            iterations += other.iterations;
+            trainingTime += other.trainingTime;
+            seededWeights += other.seededWeights;
+            weights += other.weights;
+        }
+
+        /**
+         * Records the cost of training the evaluated classifier.
+         * @param iterations Optimizer iterations (-1 if unknown)
+         * @param trainingTime Training time in milliseconds
+         */
+        public void setTraining(int iterations, long trainingTime) {
+            this.iterations = Math.max(0, iterations);
+            this.trainingTime = trainingTime;
+        }
+
+        /**
+         * Records how many weights the training took over from the warm start classifier.
+         * @param seededWeights Weights taken over
+         * @param weights Weights of the evaluated classifier
+         */
+        public void setWarmStart(int seededWeights, int weights) {
+            this.seededWeights = seededWeights;
+            this.weights = weights;
+        }
+
+        /**
+         * @return Share of the weights taken over from a warm start classifier (over added evaluations), 0 if none
+         */
+        public double seededShare() {
+            return weights == 0 ? 0.0 : (double) seededWeights / weights;
+        }
+
+        /**
+         * @return Optimizer iterations of the training (summed up over added evaluations)
+         */
+        public int getIterations() {
+            return iterations;
+        }
+
+        /**
+         * @return Training time in milliseconds (summed up over added evaluations)
+         */
+        public long getTrainingTime() {
+            return trainingTime;
+        }
+
+        public double precision(String label) {
+            double found = tp.getCount(label) + fp.getCount(label);
+            return found == 0 ? 0.0 : tp.getCount(label) / found;
+        }
+
+        public double recall(String label) {
+            double gold = tp.getCount(label) + fn.getCount(label);
+            return gold == 0 ? 0.0 : tp.getCount(label) / gold;
+        }
+
+        public double f1(String label) {
+            double p = precision(label);
+            double r = recall(label);
+            return p + r == 0 ? 0.0 : 2 * p * r / (p + r);
+        }
+
+        /**
+         * @return Precision over all labels
+         */
+        public double precision() {
+            double found = tp.totalCount() + fp.totalCount();
+            return found == 0 ? 0.0 : tp.totalCount() / found;
+        }
+
+        /**
+         * @return Recall over all labels
+         */
+        public double recall() {
+            double gold = tp.totalCount() + fn.totalCount();
+            return gold == 0 ? 0.0 : tp.totalCount() / gold;
+        }
+
+        /**
+         * @return F1 over all labels
+         */
+        public double f1() {
+            double p = precision();
+            double r = recall();
+            return p + r == 0 ? 0.0 : 2 * p * r / (p + r);
+        }
+
+        /**
+         * Prints precision, recall and F1 for every label and over all labels.
+         */
+        public void print() {
+            TreeSet<String> labels = new TreeSet<>(tp.keySet());
+            labels.addAll(fp.keySet());
+            labels.addAll(fn.keySet());
+
+            System.out.println(String.format("%-10s %9s %9s %9s %5s %5s %5s", "Entity", "P", "R", "F1", "TP", "FP", "FN"));
+            for (String label : labels) {
+                System.out.println(String.format("%-10s %9.4f %9.4f %9.4f %5d %5d %5d", label, precision(label), recall(label), f1(label),
+                        (int) tp.getCount(label), (int) fp.getCount(label), (int) fn.getCount(label)));
             }
-            if (!annoOnly && !domain) {
-                classifier.serializeClassifier("src/main/resources/models/snlp/cross/full/" + evalFold + "-eval.ser.gz");
-                classifier.serializeClassifier("D:/java/stanford-ner/classifiers/cross/full/" + evalFold + "-eval.ser.gz");
+            System.out.println(String.format("%-10s %9.4f %9.4f %9.4f %5d %5d %5d", "Totals", precision(), recall(), f1(),
+                    (int) tp.totalCount(), (int) fp.totalCount(), (int) fn.totalCount()));
+            if (trainingTime > 0) {
+                System.out.println();
+                System.out.println("Iterations: " + iterations + ", training time: " + trainingTime / 1000.0 + " s");
             }
-            if (annoOnly && domain) {
-                classifier.serializeClassifier("src/main/resources/models/snlp/cross/domain/anno/" + domainName + "/" + evalFold + "-eval.ser.gz");
-                classifier.serializeClassifier("D:/java/stanford-ner/classifiers/cross/domain/anno/" + domainName + "/" + evalFold + "-eval.ser.gz");
+            if (weights > 0) {
+                System.out.println("Warm start: " + seededWeights + " of " + weights + " weights taken over");
             }
-            if (!annoOnly && domain) {
-                classifier.serializeClassifier("src/main/resources/models/snlp/cross/domain/full/" + domainName + "/" + evalFold + "-eval.ser.gz");
-                classifier.serializeClassifier("D:/java/stanford-ner/classifiers/cross/domain/full/" + domainName + "/" + evalFold + "-eval.ser.gz");
+        }
+    }
+
+    /**
+     * Runs the cross-validation in this process with every fold being trained and evaluated as a separate task on
+     * the given executor. Each fold is trained on all other folds, saved once and evaluated against its own files.
+     * With a warm start (see the profile) the folds start from the weights of a saved model, or all folds but the first
+     * start from the weights of the first fold, which is then trained before the others.
+     * @param folds Files of each fold
+     * @param featureSet Feature set
+     * @param profile Training profile of every fold
+     * @param modelDir Directory the classifier of each fold is saved to (&lt;fold&gt;-eval.ser.gz)
+     * @param executor Executor running the folds, its number of threads limits the folds trained at the same time
+     * @return Evaluation of each fold in fold order
+     */
+    public static List<Evaluation> crossValidate(File[][] folds, int featureSet, CrfTrainingProfile profile, File modelDir, ExecutorService executor) {
+        List<Future<Evaluation>> results = new ArrayList<>();
+        List<Evaluation> evaluations = new ArrayList<>();
+        CachingCRFClassifier.FeatureCache cache = new CachingCRFClassifier.FeatureCache();
+        AtomicReference<CRFClassifier<CoreLabel>> seed = new AtomicReference<>();
+
+        if (profile.getWarmStart() == CrfTrainingProfile.WarmStart.MODEL) {
+            try {
+                seed.set(CRFClassifier.getClassifier(profile.getWarmStartModel()));
+            } catch (IOException | ClassNotFoundException e) {
+                e.printStackTrace();
+                return evaluations;
+            }
+        }
+
+        for (int j=0; j<folds.length; j++) {
+            File[] testFiles = folds[j];
+            List<File> trainFiles = new ArrayList<>();
+            for (int i=0; i<folds.length; i++) {
+                if (i != j) {
+                    trainFiles.addAll(Arrays.asList(folds[i]));
+                }
             }
-        } else {
-            if (annoOnly) {
-                if (featureSet == 0) {
-                    classifier.serializeClassifier("src/main/resources/models/snlp/features/anno/feature-set-default.ser.gz");
-                    classifier.serializeClassifier("D:/java/stanford-ner/classifiers/features/anno/feature-set-default.ser.gz");
-                } else {
-                    classifier.serializeClassifier("src/main/resources/models/snlp/features/anno/feature-set-" + featureSet + ".ser.gz");
-                    classifier.serializeClassifier("D:/java/stanford-ner/classifiers/features/anno/feature-set-" + featureSet + ".ser.gz");
+            File[] train = trainFiles.toArray(new File[trainFiles.size()]);
+            Properties props = setProperties(fileList(train), featureSet, profile);
+            File model = new File(modelDir, j + "-eval.ser.gz");
+            int evalFold = j;
+            results.add(executor.submit(() -> {
+                Metrics.Sample training = Metrics.timer("snlp.train", evalFold).start();
+                CachingCRFClassifier classifier = train(props, train, featureSet, cache, seed.get(), null);
+                long trainingTime = training.stop() / 1000000;
+                if (evalFold == 0 && profile.getWarmStart() == CrfTrainingProfile.WarmStart.FOLD) {
+                    seed.set(classifier);
+                }
+                Metrics.Sample serializing = Metrics.timer("snlp.serialize", evalFold).start();
+                try {
+                    save(classifier, model);
+                } finally {
+                    serializing.stop();
+                }
+                Evaluation evaluation;
+                Metrics.Sample evaluating = Metrics.timer("snlp.evaluate", evalFold).start();
+                try {
+                    evaluation = evaluate(classifier, testFiles);
+                } finally {
+                    evaluating.stop();
+                }
+                evaluation.setTraining(classifier.getIterations(), trainingTime);
+                evaluation.setWarmStart(classifier.getSeededWeights(), classifier.getWeights());
+                // folds are evaluated concurrently, keep the block of each fold together
+                synchronized (System.out) {
+                    System.out.println("--------------------------------------------------------------------------");
+                    System.out.println("Evaluating fold " + evalFold);
+                    System.out.println();
+                    evaluation.print();
                 }
-            } else {
-                if (featureSet == 0) {
-                    classifier.serializeClassifier("src/main/resources/models/snlp/features/full/feature-set-default.ser.gz");
-                    classifier.serializeClassifier("D:/java/stanford-ner/classifiers/features/full/feature-set-default.ser.gz");
-                } else {
-                    classifier.serializeClassifier("src/main/resources/models/snlp/features/full/feature-set-" + featureSet + ".ser.gz");
-                    classifier.serializeClassifier("D:/java/stanford-ner/classifiers/features/full/feature-set-" + featureSet + ".ser.gz");
+                return evaluation;
+            }));
+            if (j == 0 && profile.getWarmStart() == CrfTrainingProfile.WarmStart.FOLD) {
+                // the other folds start from the weights of the first one
+                try {
+                    results.get(0).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return evaluations;
+                } catch (ExecutionException e) {
+                    // the other folds start cold
                 }
             }
         }
+
+        for (Future<Evaluation> result : results) {
+            try {
+                evaluations.add(result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+        return evaluations;
+    }
+
+    /**
+     * Finds the best feature set by successive halving: all feature sets are trained with a small budget of optimizer
+     * iterations and evaluated on the held-out files, only the best 1/eta of them go on to the next round with eta
+     * times the budget. The last round trains the remaining candidates to convergence and saves them. So the sweep
+     * costs a few full trainings instead of one per feature set.
+     * @param trainFiles Training files (tab-separated)
+     * @param testFiles Held-out files (tab-separated)
+     * @param featureSets Feature sets to compare
+     * @param profile Training profile of every candidate
+     * @param budget Optimizer iterations of the first round
+     * @param eta Factor by which the candidates shrink and the budget grows from round to round
+     * @param modelDir Directory the finally trained classifiers are saved to (feature-set-&lt;n&gt;.ser.gz)
+     * @param executor Executor training the candidates of a round concurrently
+     * @return Best feature set
+     */
+    public static int sweepFeatureSets(File[] trainFiles, File[] testFiles, int[] featureSets, CrfTrainingProfile profile,
+                                       int budget, int eta, File modelDir, ExecutorService executor) {
+        CachingCRFClassifier.FeatureCache cache = new CachingCRFClassifier.FeatureCache();
+        String trainFileList = fileList(trainFiles);
+        List<Integer> candidates = new ArrayList<>();
+        for (int set : featureSets) {
+            candidates.add(set);
+        }
+        int round = 1;
+
+        while (true) {
+            boolean last = candidates.size() <= eta;
+            CrfTrainingProfile roundProfile = profile.withMaxIterations(last ? 0 : budget);
+            List<Future<Evaluation>> results = new ArrayList<>();
+            List<Integer> evaluated = new ArrayList<>();
+            List<Evaluation> evaluations = new ArrayList<>();
+
+            for (int set : candidates) {
+                Properties props = setProperties(trainFileList, set, roundProfile);
+                File model = last ? new File(modelDir, (set == 0 ? "feature-set-default" : "feature-set-" + set) + ".ser.gz") : null;
+                results.add(executor.submit(() -> {
+                    CachingCRFClassifier classifier;
+                    Metrics.Sample training = Metrics.timer("snlp.train").start();
+                    try {
+                        classifier = train(props, trainFiles, set, cache, null, null);
+                    } finally {
+                        training.stop();
+                    }
+                    if (model != null) {
+                        Metrics.Sample serializing = Metrics.timer("snlp.serialize").start();
+                        try {
+                            save(classifier, model);
+                        } finally {
+                            serializing.stop();
+                        }
+                    }
+                    Metrics.Sample evaluating = Metrics.timer("snlp.evaluate").start();
+                    try {
+                        return evaluate(classifier, testFiles);
+                    } finally {
+                        evaluating.stop();
+                    }
+                }));
+            }
+            for (int i=0; i<results.size(); i++) {
+                try {
+                    evaluations.add(results.get(i).get());
+                    evaluated.add(candidates.get(i));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
+            }
+            if (evaluated.isEmpty()) {
+                return -1;
+            }
+
+            List<Integer> ranking = new ArrayList<>();
+            for (int i=0; i<evaluated.size(); i++) {
+                ranking.add(i);
+            }
+            ranking.sort(Comparator.comparingDouble((Integer i) -> evaluations.get(i).f1()).reversed());
+
+            System.out.println("--------------------------------------------------------------------------");
+            System.out.println("Round " + round + " (" + (last ? "until converged" : budget + " iterations") + ")");
+            System.out.println();
+            System.out.println(String.format("%-12s %9s %9s %9s", "Feature set", "P", "R", "F1"));
+            for (int i : ranking) {
+                Evaluation e = evaluations.get(i);
+                System.out.println(String.format("%-12d %9.4f %9.4f %9.4f", evaluated.get(i), e.precision(), e.recall(), e.f1()));
+            }
+
+            if (last) {
+                Evaluation best = evaluations.get(ranking.get(0));
+                System.out.println("--------------------------------------------------------------------------");
+                System.out.println("Best feature set: " + evaluated.get(ranking.get(0)));
+                System.out.println();
+                best.print();
+                return evaluated.get(ranking.get(0));
+            }
+
+            int keep = Math.max(1, (int) Math.ceil((double) evaluated.size() / eta));
+            candidates.clear();
+            for (int i : ranking.subList(0, keep)) {
+                candidates.add(evaluated.get(i));
+            }
+            budget *= eta;
+            round++;
+        }
+    }
+
+    /**
+     * Trains the classifier and saves it. The features of the training files are taken from the cache, or extracted
+     * and added to it if another classifier with the same feature set has not done so yet.
+     * @param props Properties for training
+     * @param trainFiles Training files (tab-separated)
+     * @param featureSet Feature set of the properties
+     * @param cache Feature cache shared by the classifiers of a cross-validation or sweep
+     * @param seed Classifier whose weights the optimizer starts from, null for a cold start
+     * @param model File the classifier is saved to, null to keep it in memory only
+     * @return Trained classifier
+     */
+    public static CachingCRFClassifier train(Properties props, File[] trainFiles, int featureSet, CachingCRFClassifier.FeatureCache cache,
+                                             CRFClassifier<CoreLabel> seed, File model) {
+        CachingCRFClassifier classifier = new CachingCRFClassifier(props);
+        classifier.setWarmStart(seed);
+        classifier.train(trainFiles, featureSet, cache);
+        if (model != null) {
+            save(classifier, model);
+        }
         return classifier;
     }
 
     /**
-     * Generates a scriptfile for evaluating the classifier
-     * @param testFiles List of files to test the classifier on
-     * @param classifier Path to the classifier
+     * Saves a trained classifier.
+     * @param classifier Trained classifier
+     * @param model File the classifier is saved to
      */
-    public static void createEvalScript(String testFiles, String classifier, String domainName) {
-        String[] cl = classifier.split("/");
-        File out;
-        if (!domainName.equals("")) {
-            out = new File("D:/Java/stanford-ner/" + domainName + "-" + cl[cl.length-1] + ".bat");
-        } else {
-            out = new File("D:/Java/stanford-ner/" + cl[cl.length-1] + ".bat");
+    public static void save(CRFClassifier<CoreLabel> classifier, File model) {
+        model.getParentFile().mkdirs();
+        classifier.serializeClassifier(model.getPath());
+    }
+
+    private static String fileList(File[] files) {
+        StringBuilder fileList = new StringBuilder();
+        for (File file : files) {
+            if (fileList.length() > 0) {
+                fileList.append(",");
+            }
+            fileList.append(file.getPath());
         }
+        return fileList.toString();
+    }
 
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(out))) {
-//            bw.write("d:");
-//            bw.newLine();
-//            bw.write("cd java/stanford-ner");
-//            bw.newLine();
-            bw.write("java -classpath lib/* edu.stanford.nlp.ie.crf.CRFClassifier -loadClassifier " + classifier + " -testFiles " + testFiles);
-            bw.newLine();
-            bw.write("pause");
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Classifies the test files and counts the correctly and incorrectly found entities against the gold labels.
+     * @param classifier Trained classifier
+     * @param testFiles Gold standard (tab-separated)
+     * @return Evaluation over all test files
+     */
+    public static Evaluation evaluate(CRFClassifier<CoreLabel> classifier, File[] testFiles) {
+        Evaluation evaluation = new Evaluation();
+        DocumentReaderAndWriter<CoreLabel> readerAndWriter = classifier.makeReaderAndWriter();
+        String[] paths = new String[testFiles.length];
+        for (int i=0; i<testFiles.length; i++) {
+            paths[i] = testFiles[i].getPath();
         }
+
+        for (List<CoreLabel> document : classifier.makeObjectBankFromFiles(paths, readerAndWriter)) {
+            classifier.classify(document);
+            classifier.countResults(document, evaluation.tp, evaluation.fp, evaluation.fn);
+        }
+        return evaluation;
+    }
+
+    /**
+     * Creates a batch tagger for a loaded classifier, which all workers share.
+     * @param classifier Classifier
+     * @param threads Number of worker threads
+     * @param batchSize Maximum number of sentences tagged in one batch
+     * @param batchDelay Time (in ms) a worker waits for a batch to fill up
+     * @return Batch tagger (to be closed)
+     */
+    public static BatchTagger batchTagger(SharedCRFClassifier classifier, int threads, int batchSize, long batchDelay) {
+        return new BatchTagger(() -> classifier::tag, threads, batchSize, batchDelay);
     }
 
     /*
@@ -0,0 +1,14 @@
+import java.io.IOException;
+
+/**
+ * Source of report text which is handed out block by block, so that a report never has to be held in memory as a whole.
+ */
+interface TextSource {
+
+    /**
+     * Returns the next block of text. Concatenating all blocks gives the text of the whole report.
+     * @return Text block or null if the end of the report is reached
+     * @throws IOException
+     */
+    String nextBlock() throws IOException;
+}
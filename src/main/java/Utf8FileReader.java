@@ -0,0 +1,126 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader for UTF-8 files which reads the file into a heap buffer and decodes the bytes directly into the caller's
+ * buffer, without a stream, a charset decoder and their intermediate buffers in between. The file is closed once it
+ * is read, so it can be replaced or deleted while the reader is still in use.
+ * Malformed bytes are replaced by U+FFFD. Files must be smaller than 2 GB.
+ */
+class Utf8FileReader extends Reader {
+    private final ByteBuffer bytes;
+    /** Second half of a surrogate pair which did not fit into the caller's buffer */
+    private char pendingLow = 0;
+
+    /**
+     * @param file UTF-8 encoded file
+     * @throws IOException
+     */
+    public Utf8FileReader(File file) throws IOException {
+        bytes = read(file);
+    }
+
+    /**
+     * Reads a file into a heap buffer.
+     * @param file File
+     * @return Content of the file, positioned at its start
+     * @throws IOException
+     */
+    public static ByteBuffer read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to be read: " + file.getPath());
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        if (pendingLow != 0) {
+            cbuf[off + n++] = pendingLow;
+            pendingLow = 0;
+        }
+
+        int p = bytes.position();
+        int limit = bytes.limit();
+        while (n < len && p < limit) {
+            int b = bytes.get(p);
+            if (b >= 0) {
+                cbuf[off + n++] = (char) b;
+                p++;
+                continue;
+            }
+
+            b &= 0xFF;
+            int following;
+            int cp;
+            int min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                following = 1;
+                cp = b & 0x1F;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                following = 2;
+                cp = b & 0x0F;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                following = 3;
+                cp = b & 0x07;
+                min = 0x10000;
+            } else {
+                cbuf[off + n++] = '\uFFFD';
+                p++;
+                continue;
+            }
+
+            boolean valid = p + following < limit;
+            for (int i=1; valid && i<=following; i++) {
+                int c = bytes.get(p + i);
+                valid = (c & 0xC0) == 0x80;
+                cp = (cp << 6) | (c & 0x3F);
+            }
+            if (!valid || cp < min || cp > 0x10FFFF || (cp >= 0xD800 && cp <= 0xDFFF)) {
+                // skip only the lead byte, the following bytes are decoded (or replaced) on their own
+                cbuf[off + n++] = '\uFFFD';
+                p++;
+                continue;
+            }
+
+            p += following + 1;
+            if (cp < 0x10000) {
+                cbuf[off + n++] = (char) cp;
+            } else {
+                cbuf[off + n++] = Character.highSurrogate(cp);
+                if (n < len) {
+                    cbuf[off + n++] = Character.lowSurrogate(cp);
+                } else {
+                    pendingLow = Character.lowSurrogate(cp);
+                }
+            }
+        }
+        bytes.position(p);
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() {
+        bytes.position(bytes.limit());
+    }
+}
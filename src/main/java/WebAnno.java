@@ -1,79 +1,249 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * WebAnno Extractor for CoNLL 2002 format
+ * Every output format is produced by a sink which receives the lines of a CoNLL file one after another,
+ * so that a file can be converted into all formats with a single read.
  * @author Maxim Serebrianski
  */
 class WebAnno {
+    static final String corpusFile = "src/main/resources/training/corpus.bin";
+
+    /**
+     * Receives the lines of a CoNLL file in file order.
+     */
+    private interface Sink extends Closeable {
+
+        /**
+         * @param text Buffer holding the token (first column), only valid during the call
+         * @param start Start of the token
+         * @param end End (exclusive) of the token
+         * @param label Annotation (second column)
+         */
+        void token(char[] text, int start, int end, ConllReader.Label label) throws IOException;
+
+        /**
+         * Empty line between two sentences.
+         */
+        void blank() throws IOException;
+    }
+
+    /**
+     * Training data formats, each written into its own directory with one output file per CoNLL file.
+     */
+    enum Format {
+        OPENNLP("src/main/resources/training/onlp/annotated"),
+        STANFORD_FULL("src/main/resources/training/snlp/full"),
+        STANFORD_ANNO("src/main/resources/training/snlp/anno");
+
+        final File dir;
+
+        Format(String dir) {
+            this.dir = new File(dir);
+        }
+
+        /**
+         * @param in CoNLL file
+         * @return Training file written from it
+         */
+        File output(File in) {
+            return new File(dir, this == OPENNLP ? openNlpFileName(in.getName()) : stanfordFileName(in.getName()));
+        }
+
+        private Sink sink(File out) throws IOException {
+            switch (this) {
+                case OPENNLP:
+                    return new OpenNlpSink(out);
+                case STANFORD_FULL:
+                    return new StanfordNlpSink(out);
+                default:
+                    return new StanNlpAnnoOnlySink(out);
+            }
+        }
+    }
+
+    /**
+     * Converts only the WebAnno export files which are new or changed since the last run into one training data format,
+     * in parallel, and deletes the training files whose export file is gone. The exports are recorded with their
+     * content hash in a manifest (.manifest) in the output directory; delete it to convert all files again (e.g. after
+     * the conversion itself was changed). Training files not recorded in the manifest are left alone.
+     * If anything was converted or removed, the binary corpus is deleted (see {@link #convertAll(File[], int)}).
+     * @param in CoNLL files to be converted
+     * @param format Training data format
+     * @param threads Number of files converted at the same time
+     */
+    public static void convertChanged(File[] in, Format format, int threads) {
+        File manifestFile = new File(format.dir, ".manifest");
+        ConversionManifest manifest;
+        try {
+            manifest = ConversionManifest.load(manifestFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        int removed = removeMissing(in, format, manifest);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<File> checked = new ArrayList<>();
+        List<Future<ConversionManifest.Entry>> results = new ArrayList<>();
+        AtomicInteger converted = new AtomicInteger();
+        for (File f : in) {
+            if (!manifest.isUnchanged(f, format.output(f))) {
+                checked.add(f);
+                results.add(executor.submit(() -> convertIfChanged(f, format, manifest.get(f.getName()), converted)));
+            }
+        }
+        int failed = 0;
+        try {
+            for (int i=0; i<results.size(); i++) {
+                try {
+                    manifest.put(checked.get(i).getName(), results.get(i).get());
+                } catch (ExecutionException e) {
+                    // not recorded, converted again next time
+                    e.getCause().printStackTrace();
+                    failed++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+
+        try {
+            manifest.save();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (converted.get() + failed + removed > 0) {
+            deleteCorpus();
+        }
+        System.out.println("--------------------------------------------------------------------------");
+        System.out.println("Converted: " + converted.get() + ", up to date: " + (in.length - converted.get() - failed)
+                + ", failed: " + failed + ", removed: " + removed);
+    }
+
+    /**
+     * Deletes the training files whose export file is gone and removes them from the manifest.
+     * @return Number of training files deleted
+     */
+    private static int removeMissing(File[] in, Format format, ConversionManifest manifest) {
+        Set<String> inputs = new HashSet<>();
+        for (File f : in) {
+            inputs.add(f.getName());
+        }
+        int removed = 0;
+        for (String input : manifest.inputs()) {
+            if (!inputs.contains(input)) {
+                File out = new File(format.dir, manifest.get(input).output);
+                System.out.println("Removing " + "\"" + out.getName() + "\"");
+                if (out.exists() && !out.delete()) {
+                    System.out.println("Cannot delete " + out.getPath());
+                    continue;
+                }
+                manifest.remove(input);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Deletes the binary corpus after training files of one format were converted or removed, since it no longer holds
+     * the same data as the text files (option 0 writes it again).
+     */
+    private static void deleteCorpus() {
+        File corpus = new File(corpusFile);
+        if (corpus.exists()) {
+            System.out.println("Removing " + "\"" + corpus.getName() + "\"" + " (training files changed)");
+            if (!corpus.delete()) {
+                System.out.println("Cannot delete " + corpus.getPath());
+            }
+        }
+    }
+
+    /**
+     * Checks without reading the exports whether {@link #convertChanged(File[], Format, int)} would convert or remove
+     * anything.
+     * @param in CoNLL files
+     * @param format Training data format
+     * @return True if the manifest records exactly these files with unchanged size and modification time
+     */
+    public static boolean isUpToDate(File[] in, Format format) {
+        ConversionManifest manifest;
+        try {
+            manifest = ConversionManifest.load(new File(format.dir, ".manifest"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        if (manifest.inputs().size() != in.length) {
+            return false;
+        }
+        for (File f : in) {
+            if (!manifest.isUnchanged(f, format.output(f))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts a file unless its content is the same as recorded (only its modification time changed).
+     * @return Current state of the file
+     */
+    private static ConversionManifest.Entry convertIfChanged(File in, Format format, ConversionManifest.Entry recorded,
+                                                             AtomicInteger converted) throws IOException {
+        File out = format.output(in);
+        ConversionManifest.Entry entry = ConversionManifest.state(in, out);
+        if (recorded != null && recorded.hash.equals(entry.hash) && recorded.output.equals(entry.output) && out.isFile()) {
+            // remember the new modification time, so the file is not hashed again
+            return entry;
+        }
+        System.out.println("Processing " + "\"" + in.getName() + "\"");
+        convert(in, format, out);
+        converted.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Converts a WebAnno export file into one training data format.
+     * @param in CoNLL file to be converted
+     * @param format Training data format
+     * @param out Training file
+     * @throws IOException
+     */
+    static void convert(File in, Format format, File out) throws IOException {
+        try (Sink sink = format.sink(out)) {
+            read(in, "convert", sink);
+        }
+    }
 
     /**
      * Creates training data for OpenNLP from WebAnno export files (CoNLL 2002).
      * @param in CoNLL file to be converted
      */
     public static void genOpenNlp(File in) {
-        String line;
-        String[] splitLine;
-        String[] annoSplit;
-        boolean annotation = false;
-        String fileName = in.getName().replace("%26", "&").replace("%2520", " ").replace(".conll", ".train");
-        File out = new File("src/main/resources/training/onlp/annotated/" + fileName);
-        StringBuilder sb = new StringBuilder();
-        boolean write = false;
-        boolean lastLine = false;
-
         System.out.println("Processing " + "\"" + in.getName() + "\"");
 
-        try (BufferedReader br = new BufferedReader(new FileReader(in)); BufferedWriter bw = new BufferedWriter(new FileWriter(out))) {
-            while ((line = br.readLine()) != null) {
-                if (!(line.isEmpty() || lastLine)) {
-                    splitLine = line.trim().split(" ");
-                    if (splitLine[1].equals("O")) {
-                        if (annotation) {
-                            sb.append("<END> ");
-                            annotation = false;
-                        }
-                        sb.append(splitLine[0]).append(" ");
-                    } else {
-                        annoSplit = splitLine[1].split("-");
-                        switch (annoSplit[0]) {
-                            case "B":
-                                switch (annoSplit[1]) {
-                                    case "START":
-                                        write = true;
-                                        sb.setLength(0);
-                                        sb.append(splitLine[0]).append(" ");
-                                        break;
-                                    case "END":
-                                        write = false;
-                                        lastLine = true;
-                                        sb.append(splitLine[0]).append(" .");
-                                        break;
-                                    default:
-                                        if (annotation) {
-                                            sb.append("<END> ");
-                                        }
-                                        annotation = true;
-                                        sb.append("<START:").append(annoSplit[1]).append("> ").append(splitLine[0]).append(" ");
-                                }
-                                break;
-                            case "I":
-                                annotation = true;
-                                sb.append(splitLine[0]).append(" ");
-                                break;
-                        }
-                    }
-                } else {
-                    if (write || lastLine) {
-                        bw.write(sb.toString().trim());
-                        if (!lastLine) {
-                            bw.newLine();
-                        }
-                    }
-                    sb.setLength(0);
-                }
-            }
+        try (OpenNlpSink sink = new OpenNlpSink(Format.OPENNLP.output(in))) {
+            read(in, "convert", sink);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -85,46 +255,10 @@ class WebAnno {
      * @param in CoNLL file to be converted
      */
     public static void genStanfordNlp(File in) {
-        String fileName = in.getName().replace("%26", "and").replace("%2520", "").replace(".conll", ".tsv");
-        File out = new File("src/main/resources/training/snlp/full/" + fileName);
-        String line;
-        String[] splitLine;
-        String[] annotation;
-        StringBuilder sb = new StringBuilder();
-        boolean write = false;
-
         System.out.println("Processing " + "\"" + in.getName() + "\"");
 
-        try (BufferedReader br = new BufferedReader(new FileReader(in)); BufferedWriter bw = new BufferedWriter(new FileWriter(out))) {
-            while ((line = br.readLine()) != null) {
-                sb.setLength(0);
-                boolean lastLine = false;
-                if (!line.isEmpty()) {
-                    splitLine = line.trim().split(" ");
-                    if (splitLine[1].equals("O")) {
-                        sb.append(splitLine[0]).append("\t").append(splitLine[1]).append("\n");
-                    } else {
-                        annotation = splitLine[1].split("-");
-                        switch (annotation[1]) {
-                            case "START":
-                                write = true;
-                                sb.append(splitLine[0]).append("\tO\n");
-                                break;
-                            case "END":
-                                write = false;
-                                lastLine = true;
-                                sb.append(splitLine[0]).append("\tO\n.\tO");
-                                break;
-                            default:
-                                sb.append(splitLine[0]).append("\t").append(annotation[1]).append("\n");
-                                break;
-                        }
-                    }
-                    if (write || lastLine) {
-                        bw.write(sb.toString());
-                    }
-                }
-            }
+        try (StanfordNlpSink sink = new StanfordNlpSink(Format.STANFORD_FULL.output(in))) {
+            read(in, "convert", sink);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -136,122 +270,505 @@ class WebAnno {
      * @param in CoNLL file to be converted
      */
     public static void genStanNlpAnnoOnly(File in) {
-        String fileName = in.getName().replace("%26", "and").replace("%2520", "").replace(".conll", ".tsv");
-        File out = new File("src/main/resources/training/snlp/anno/" + fileName);
-        String line;
-        ArrayList<String> sentences = new ArrayList<>();
-        StringBuilder sb = new StringBuilder();
-        String[] splitLine;
-        String[] annotation;
-        boolean annoSentence = false;
+        System.out.println("Processing " + "\"" + in.getName() + "\"");
+
+        try (StanNlpAnnoOnlySink sink = new StanNlpAnnoOnlySink(Format.STANFORD_ANNO.output(in))) {
+            read(in, "convert", sink);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Creates statistic on the occurence of the different labels.
+     * @param in Report being evaluated
+     */
+    public static void runStatistics(File[] in) {
+        runStatistics(in, 1);
+    }
+
+    /**
+     * Creates statistic on the occurence of the different labels, reading the files in parallel.
+     * @param in Report being evaluated
+     * @param threads Number of files read at the same time
+     */
+    public static void runStatistics(File[] in, int threads) {
+        statistics(in, threads).print();
+    }
+
+    /**
+     * Creates statistic on the occurence of the different labels without printing it.
+     * @param in Report being evaluated
+     * @param threads Number of files read at the same time
+     * @return Statistics over all files
+     */
+    static Statistics statistics(File[] in, int threads) {
+        return forEachFile(in, threads, WebAnno::statistics);
+    }
+
+    /**
+     * Converts the WebAnno export files into all training data formats at once (OpenNLP, Stanford NLP full and
+     * annotated only) and collects the statistics. Every file is read only once and the files are converted in parallel.
+     * All files are also written into the binary corpus (training/corpus.bin), which training reads instead of the
+     * text files when it is set with -Dnlp.corpus (see {@link BinaryCorpus}). The converted files are recorded in the
+     * manifests of all three formats, so that {@link #convertChanged(File[], Format, int)} finds them up to date.
+     * @param in CoNLL files to be converted
+     * @param threads Number of files converted at the same time
+     * @return Statistics over all files
+     */
+    public static Statistics convertAll(File[] in, int threads) {
+        Map<File, BinaryCorpus.Document> documents = new LinkedHashMap<>();
+        for (File f : in) {
+            documents.put(f, new BinaryCorpus.Document(f.getName()));
+        }
+        Map<File, ConversionManifest.Entry> converted = new ConcurrentHashMap<>();
+        Statistics statistics = forEachFile(in, threads, f -> convert(f, documents.get(f), converted));
+        if (converted.size() == in.length) {
+            try {
+                BinaryCorpus.write(new ArrayList<>(documents.values()), new File(corpusFile));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            // a corpus without the failed files would not match the text files
+            deleteCorpus();
+        }
+
+        for (Format format : Format.values()) {
+            try {
+                ConversionManifest manifest = ConversionManifest.load(new File(format.dir, ".manifest"));
+                removeMissing(in, format, manifest);
+                for (Map.Entry<File, ConversionManifest.Entry> e : converted.entrySet()) {
+                    ConversionManifest.Entry state = e.getValue();
+                    manifest.put(e.getKey().getName(), new ConversionManifest.Entry(state.hash, state.size, state.lastModified,
+                            format.output(e.getKey()).getName()));
+                }
+                manifest.save();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * @param conllFileName Name of a WebAnno export file
+     * @return Name of its OpenNLP training file
+     */
+    static String openNlpFileName(String conllFileName) {
+        return conllFileName.replace("%26", "&").replace("%2520", " ").replace(".conll", ".train");
+    }
+
+    /**
+     * @param conllFileName Name of a WebAnno export file
+     * @return Name of its Stanford NLP training files (full and annotated only)
+     */
+    static String stanfordFileName(String conllFileName) {
+        return conllFileName.replace("%26", "and").replace("%2520", "").replace(".conll", ".tsv");
+    }
 
+    /**
+     * Runs the task on every file in parallel and adds up the statistics in the given order of the files.
+     */
+    private static Statistics forEachFile(File[] in, int threads, Function<File, Statistics> task) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Statistics>> results = new ArrayList<>();
+        Statistics statistics = new Statistics();
+
+        for (File f : in) {
+            results.add(executor.submit(() -> task.apply(f)));
+        }
+        try {
+            for (Future<Statistics> result : results) {
+                statistics.add(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } finally {
+            executor.shutdown();
+        }
+        return statistics;
+    }
+
+    private static Statistics statistics(File in) {
+        Statistics statistics = new Statistics();
+        try {
+            read(in, "statistics", statistics);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return statistics;
+    }
+
+    /**
+     * Converts a file into all formats and the document of the binary corpus.
+     * @param converted Receives the state of the file (taken before it is read) if it was converted
+     */
+    private static Statistics convert(File in, BinaryCorpus.Document document, Map<File, ConversionManifest.Entry> converted) {
+        Statistics statistics = new Statistics();
         System.out.println("Processing " + "\"" + in.getName() + "\"");
 
-        try (BufferedReader br = new BufferedReader(new FileReader(in)); BufferedWriter bw = new BufferedWriter(new FileWriter(out))) {
-            while ((line = br.readLine()) != null) {
-                if (!line.isEmpty()) {
-                    splitLine = line.trim().split(" ");
-                    if (splitLine[1].equals("O")) {
-                        sb.append(splitLine[0]).append("\t").append(splitLine[1]).append("\n");
-                    } else {
-                        annotation = splitLine[1].split("-");
-                        switch (annotation[1]) {
+        try {
+            ConversionManifest.Entry state = ConversionManifest.state(in, Format.OPENNLP.output(in));
+            try (OpenNlpSink onlp = new OpenNlpSink(Format.OPENNLP.output(in)); StanfordNlpSink full = new StanfordNlpSink(Format.STANFORD_FULL.output(in));
+                 StanNlpAnnoOnlySink anno = new StanNlpAnnoOnlySink(Format.STANFORD_ANNO.output(in))) {
+                read(in, "convert", onlp, full, anno, statistics, new BinaryCorpusSink(document));
+            }
+            converted.put(in, state);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return statistics;
+    }
+
+    /**
+     * Reads a CoNLL file (UTF-8) once and passes every line to all sinks.
+     * The time is recorded for the given stage, together with the tokens and sentences (empty lines) read.
+     */
+    private static void read(File in, String stage, Sink... sinks) throws IOException {
+        long tokens = 0;
+        long sentences = 0;
+        Metrics.Sample timer = Metrics.timer(stage).start();
+        try (ConllReader reader = new ConllReader(in)) {
+            while (reader.next()) {
+                if (reader.isBlank()) {
+                    sentences++;
+                    for (Sink sink : sinks) {
+                        sink.blank();
+                    }
+                } else {
+                    tokens++;
+                    for (Sink sink : sinks) {
+                        sink.token(reader.token(), 0, reader.tokenLength(), reader.label());
+                    }
+                }
+            }
+        } finally {
+            timer.stop();
+            Metrics.counter(stage + ".tokens").add(tokens);
+            Metrics.counter(stage + ".sentences").add(sentences);
+        }
+    }
+
+    /**
+     * Writes the content of the builder without creating a string, using the given buffer if it is large enough.
+     * @return Buffer for the next call
+     */
+    private static char[] write(BufferedWriter bw, StringBuilder sb, int start, int end, char[] buffer) throws IOException {
+        if (buffer.length < end - start) {
+            buffer = new char[Math.max(end - start, buffer.length * 2)];
+        }
+        sb.getChars(start, end, buffer, 0);
+        bw.write(buffer, 0, end - start);
+        return buffer;
+    }
+
+    /**
+     * OpenNLP training data (.train): the sentences of Part I with inline name tags, one sentence per line.
+     */
+    private static class OpenNlpSink implements Sink {
+        private final BufferedWriter bw;
+        private final StringBuilder sb = new StringBuilder();
+        private char[] chars = new char[1024];
+        private boolean annotation = false;
+        private boolean write = false;
+        private boolean lastLine = false;
+
+        private OpenNlpSink(File out) throws IOException {
+            bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void token(char[] text, int start, int end, ConllReader.Label label) throws IOException {
+            if (lastLine) {
+                blank();
+                return;
+            }
+            if (label == ConllReader.Label.O) {
+                if (annotation) {
+                    sb.append("<END> ");
+                    annotation = false;
+                }
+                sb.append(text, start, end - start).append(" ");
+            } else {
+                switch (label.prefix) {
+                    case "B":
+                        switch (label.type) {
                             case "START":
-                                sb.append(splitLine[0]).append("\tO\n");
+                                write = true;
+                                sb.setLength(0);
+                                sb.append(text, start, end - start).append(" ");
                                 break;
                             case "END":
-                                sb.append(splitLine[0]).append("\tO\n.\tO");
+                                write = false;
+                                lastLine = true;
+                                sb.append(text, start, end - start).append(" .");
                                 break;
                             default:
-                                annoSentence = true;
-                                sb.append(splitLine[0]).append("\t").append(annotation[1]).append("\n");
-                                break;
+                                if (annotation) {
+                                    sb.append("<END> ");
+                                }
+                                annotation = true;
+                                sb.append("<START:").append(label.type).append("> ").append(text, start, end - start).append(" ");
                         }
-                    }
-                } else {
-                    if (annoSentence) {
-                        sentences.add(sb.toString());
-                    }
-                    sb.setLength(0);
-                    annoSentence = false;
+                        break;
+                    case "I":
+                        annotation = true;
+                        sb.append(text, start, end - start).append(" ");
+                        break;
+                }
+            }
+        }
+
+        @Override
+        public void blank() throws IOException {
+            if (write || lastLine) {
+                // same as writing sb.toString().trim()
+                int start = 0;
+                int end = sb.length();
+                while (start < end && sb.charAt(start) <= ' ') {
+                    start++;
+                }
+                while (end > start && sb.charAt(end - 1) <= ' ') {
+                    end--;
+                }
+                chars = write(bw, sb, start, end, chars);
+                if (!lastLine) {
+                    bw.newLine();
                 }
             }
+            sb.setLength(0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            bw.close();
+        }
+    }
+
+    /**
+     * Stanford NLP training data (.tsv) with all tokens of Part I, one token and its label per line.
+     */
+    private static class StanfordNlpSink implements Sink {
+        private final BufferedWriter bw;
+        private boolean write = false;
 
-            for (String s : sentences) {
-                bw.write(s);
+        private StanfordNlpSink(File out) throws IOException {
+            bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void token(char[] text, int start, int end, ConllReader.Label label) throws IOException {
+            boolean lastLine = false;
+            String column = label.name;
+            if (label != ConllReader.Label.O) {
+                switch (label.type) {
+                    case "START":
+                        write = true;
+                        column = "O";
+                        break;
+                    case "END":
+                        write = false;
+                        lastLine = true;
+                        column = "O";
+                        break;
+                    default:
+                        column = label.type;
+                        break;
+                }
+            }
+            if (write || lastLine) {
+                bw.write(text, start, end - start);
+                bw.write('\t');
+                bw.write(column);
+                bw.write('\n');
+                if (lastLine) {
+                    bw.write(".\tO");
+                }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+        }
+
+        @Override
+        public void blank() {
+        }
+
+        @Override
+        public void close() throws IOException {
+            bw.close();
         }
     }
 
     /**
-     * Creates statistic on the occurence of the different labels.
-     * @param in Report being evaluated
+     * Stanford NLP training data (.tsv) with only the sentences which contain an annotation.
      */
-    public static void runStatistics(File[] in) {
-        String line;
-        int tokens = 0;
-        int lines = 0;
-        int annotations = 0;
-        int goods = 0;
-        int assets = 0;
-        int services = 0;
-        String[] splitLine;
-        String[] annoSplit;
-        boolean start = false;
+    private static class StanNlpAnnoOnlySink implements Sink {
+        private final BufferedWriter bw;
+        private final StringBuilder sb = new StringBuilder();
+        private char[] chars = new char[1024];
+        private boolean annoSentence = false;
 
-        for (File f : in) {
-//            System.out.println("Processing " + f.getName());
-//            System.out.println();
-
-            try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-                while ((line = br.readLine()) != null) {
-                    if (!line.isEmpty()) {
-                        splitLine = line.split(" ");
-                        annoSplit = splitLine[1].split("-");
-                        if (annoSplit[0].equals("B")) {
-                            switch (annoSplit[1]) {
-                                case "START":
-                                    start = true;
-                                    break;
-                                case "END":
-                                    start = false;
-                                    break;
-                                case "GOODS":
-                                    annotations += 1;
-                                    goods += 1;
-                                    break;
-                                case "ASSET":
-                                    annotations += 1;
-                                    assets += 1;
-                                    break;
-                                case "SERVICE":
-                                    annotations += 1;
-                                    services += 1;
-                                    break;
-                            }
-                        }
-                        if (start) {
-                            tokens += 1;
-                        }
-                    } else {
-                        lines += 1;
-                    }
+        private StanNlpAnnoOnlySink(File out) throws IOException {
+            bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void token(char[] text, int start, int end, ConllReader.Label label) {
+            sb.append(text, start, end - start).append('\t');
+            if (label == ConllReader.Label.O) {
+                sb.append(label.name).append('\n');
+            } else {
+                switch (label.type) {
+                    case "START":
+                        sb.append("O\n");
+                        break;
+                    case "END":
+                        sb.append("O\n.\tO");
+                        break;
+                    default:
+                        annoSentence = true;
+                        sb.append(label.type).append('\n');
+                        break;
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
             }
         }
 
-        System.out.println("Tokens (Part I): " + tokens);
-        System.out.println("Lines (Part I): " + lines);
-        System.out.println("Annotations: " + annotations);
-        if (annotations != 0) {
-            System.out.println("Goods: " + goods + " (" + Double.parseDouble(new DecimalFormat("##.##").format((double) goods / annotations * 100)) + "%)");
-            System.out.println("Assets: " + assets + " (" + Double.parseDouble(new DecimalFormat("##.##").format((double) assets / annotations * 100)) + "%)");
-            System.out.println("Services: " + services + " (" + Double.parseDouble(new DecimalFormat("##.##").format((double) services / annotations * 100)) + "%)");
+        @Override
+        public void blank() throws IOException {
+            if (annoSentence) {
+                chars = write(bw, sb, 0, sb.length(), chars);
+            }
+            sb.setLength(0);
+            annoSentence = false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            bw.close();
+        }
+    }
+
+    /**
+     * Content of the file for the binary corpus.
+     */
+    private static class BinaryCorpusSink implements Sink {
+        private final BinaryCorpus.Document document;
+
+        private BinaryCorpusSink(BinaryCorpus.Document document) {
+            this.document = document;
+        }
+
+        @Override
+        public void token(char[] text, int start, int end, ConllReader.Label label) {
+            document.token(new String(text, start, end - start), label);
+        }
+
+        @Override
+        public void blank() {
+            document.blank();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Statistic on the occurence of the different labels.
+     * Tokens are counted from B-START up to B-END. Statistics of several files are added in file order, so that a
+     * file without B-END continues to count in the next file, just as if the files were read one after another.
+     */
+    static class Statistics implements Sink {
+        private int tokens = 0;
+        private int lines = 0;
+        private int annotations = 0;
+        private int goods = 0;
+        private int assets = 0;
+        private int services = 0;
+        /** Tokens in front of the first B-START or B-END, only counted if the previous file ended inside Part I */
+        private int leadingTokens = 0;
+        private boolean marker = false;
+        private boolean start = false;
+
+        @Override
+        public void token(char[] text, int tokenStart, int tokenEnd, ConllReader.Label label) {
+            if (label.prefix.equals("B")) {
+                switch (label.type) {
+                    case "START":
+                        start = true;
+                        marker = true;
+                        break;
+                    case "END":
+                        start = false;
+                        marker = true;
+                        break;
+                    case "GOODS":
+                        annotations += 1;
+                        goods += 1;
+                        break;
+                    case "ASSET":
+                        annotations += 1;
+                        assets += 1;
+                        break;
+                    case "SERVICE":
+                        annotations += 1;
+                        services += 1;
+                        break;
+                }
+            }
+            if (start) {
+                tokens += 1;
+            } else if (!marker) {
+                leadingTokens += 1;
+            }
+        }
+
+        @Override
+        public void blank() {
+            lines += 1;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /**
+         * Adds the statistics of the next file.
+         * @param next Statistics of a single file or of the following files
+         */
+        public void add(Statistics next) {
+            tokens += next.tokens;
+            if (start) {
+                tokens += next.leadingTokens;
+            }
+            if (!marker) {
+                leadingTokens += next.leadingTokens;
+            }
+            if (next.marker) {
+                start = next.start;
+                marker = true;
+            }
+            lines += next.lines;
+            annotations += next.annotations;
+            goods += next.goods;
+            assets += next.assets;
+            services += next.services;
+        }
+
+        /**
+         * Prints the statistics.
+         */
+        public void print() {
+            System.out.println("Tokens (Part I): " + tokens);
+            System.out.println("Lines (Part I): " + lines);
+            System.out.println("Annotations: " + annotations);
+            if (annotations != 0) {
+                System.out.println("Goods: " + goods + " (" + Double.parseDouble(new DecimalFormat("##.##").format((double) goods / annotations * 100)) + "%)");
+                System.out.println("Assets: " + assets + " (" + Double.parseDouble(new DecimalFormat("##.##").format((double) assets / annotations * 100)) + "%)");
+                System.out.println("Services: " + services + " (" + Double.parseDouble(new DecimalFormat("##.##").format((double) services / annotations * 100)) + "%)");
+            }
+            System.out.println("-----------------------------------------------");
         }
-        System.out.println("-----------------------------------------------");
     }
-}
\ No newline at end of file
+}